@@ -0,0 +1,87 @@
+package edu.sjsu.cmpe172.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.sjsu.cmpe172.ClusterState;
+import edu.sjsu.cmpe172.ZooKeeperMetrics;
+import edu.sjsu.cmpe172.ZooKeeperService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.zookeeper.ZooKeeper;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * One real ZooKeeperService, in a small Spring context of its own (no web server)
+ * Properties go through @Value exactly like in the application, unset ones keep their defaults
+ */
+final class Contender implements AutoCloseable {
+    private final AnnotationConfigApplicationContext context;
+    private final ZooKeeperService service;
+
+    Contender(Map<String, Object> properties, ObjectMapper objectMapper, MeterRegistry registry,
+              Consumer<ClusterState> listener) {
+        context = newContext(properties, objectMapper, registry);   // Shared registry, so op counts add up cluster-wide
+        service = context.getBean(ZooKeeperService.class);
+        service.addStateListener(listener);
+        service.start();   // What ApplicationReadyEvent would do
+    }
+
+    /**
+     * ZooKeeperService and its collaborators, wired but not started
+     */
+    static AnnotationConfigApplicationContext newContext(Map<String, Object> properties, ObjectMapper objectMapper,
+                                                         MeterRegistry registry) {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("contender", properties));
+        context.registerBean(ObjectMapper.class, () -> objectMapper);
+        context.registerBean(MeterRegistry.class, () -> registry);
+        context.register(ZooKeeperMetrics.class, ZooKeeperService.class);
+        context.refresh();
+        return context;
+    }
+
+    ClusterState state() {
+        return service.getClusterState();
+    }
+
+    /**
+     * Expire my session the way a long GC pause or partition would                 // reference: https://cwiki.apache.org/confluence/display/CURATOR/TN4
+     * A second client attaches to the same session and closes it; the server drops my ephemeral nodes
+     * and my own client is told Expired on its next reconnect (then ZooKeeperService rebuilds itself)
+     * Returns System.nanoTime() of the moment the session was closed
+     */
+    long expireSession(String connectString, int sessionTimeout) throws IOException, InterruptedException {
+        ZooKeeper current = client();
+        CountDownLatch connected = new CountDownLatch(1);
+        ZooKeeper intruder = new ZooKeeper(connectString, sessionTimeout, event -> {
+            if (event.getState() == org.apache.zookeeper.Watcher.Event.KeeperState.SyncConnected) {
+                connected.countDown();
+            }
+        }, current.getSessionId(), current.getSessionPasswd());
+        if (!connected.await(sessionTimeout, TimeUnit.MILLISECONDS)) {
+            intruder.close();
+            throw new IOException("Could not attach to session 0x" + Long.toHexString(current.getSessionId()));
+        }
+        long expiredAt = System.nanoTime();
+        intruder.close();
+        return expiredAt;
+    }
+
+    private ZooKeeper client() {
+        return (ZooKeeper) ReflectionTestUtils.getField(service, "zooKeeper");
+    }
+
+    /**
+     * Shuts the context down, which runs ZooKeeperService.cleanup(): session closed, ephemeral nodes gone at once
+     */
+    @Override
+    public void close() {
+        context.close();
+    }
+}
@@ -0,0 +1,40 @@
+package edu.sjsu.cmpe172.bench;
+
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Standalone ZooKeeper server in this JVM, on a random loopback port, data in a temp directory    // reference: https://zookeeper.apache.org/doc/r3.6.0/apidocs/zookeeper-server/org/apache/zookeeper/server/ZooKeeperServer.html
+ */
+final class EmbeddedZooKeeper implements AutoCloseable {
+    static final int TICK_TIME = 2000;   // Session timeouts must fall between 2 and 20 ticks
+
+    private final Path dataDir;
+    private final ZooKeeperServer server;
+    private final ServerCnxnFactory factory;
+
+    EmbeddedZooKeeper() throws IOException, InterruptedException {
+        dataDir = Files.createTempDirectory("zk-bench");
+        server = new ZooKeeperServer(dataDir.toFile(), dataDir.toFile(), TICK_TIME);
+        // 0 = no per-IP connection limit; every contender connects from 127.0.0.1
+        factory = ServerCnxnFactory.createFactory(new InetSocketAddress("127.0.0.1", 0), 0);
+        factory.startup(server);
+    }
+
+    String connectString() {
+        return "127.0.0.1:" + factory.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        factory.shutdown();
+        server.shutdown();
+        FileSystemUtils.deleteRecursively(dataDir);
+    }
+}
@@ -0,0 +1,297 @@
+package edu.sjsu.cmpe172.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.sjsu.cmpe172.ClusterState;
+import edu.sjsu.cmpe172.LeaderStatus;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Failover benchmark: N contenders against an in-process ZooKeeper, the leader is killed over and over
+ *
+ * Per round:
+ * - the leader is taken out: failure=kill closes its session (clean shutdown, a new contender replaces it),
+ *   failure=expire expires it from the server side (it rebuilds itself and rejoins as a new peer)
+ * - time to new leader: failure -> some other contender publishes LEADING
+ * - leaderless window: failure -> every surviving contender knows the new leader
+ * - ZK ops / watch events: everything the whole cluster sent/handled inside the leaderless window
+ * - then the cluster is left to settle (all ready, all agree, N peers) before the next round
+ *
+ * Arguments (key=value, all optional):
+ *   sizes=3,10,50,100,300  rounds=10  failure=kill|expire  election=SEQUENTIAL|RACE  watch=ONE_SHOT|PERSISTENT
+ */
+public final class FailoverBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(FailoverBenchmark.class);
+
+    private static final int SESSION_TIMEOUT = 5000;          // Same as application.properties
+    private static final long SETTLE_TIMEOUT_MS = 120_000;    // Generous: hundreds of clients bootstrapping at once
+    private static final long FAILOVER_TIMEOUT_MS = 60_000;
+
+    private final String failure;
+    private final String election;
+    private final String watch;
+    private final int rounds;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // Current round, written by the benchmark thread and read by the contenders' state listeners
+    private volatile Round round;
+
+    private FailoverBenchmark(String failure, String election, String watch, int rounds) {
+        this.failure = failure;
+        this.election = election;
+        this.watch = watch;
+        this.rounds = rounds;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected key=value, got: " + arg);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        FailoverBenchmark benchmark = new FailoverBenchmark(
+                options.getOrDefault("failure", "kill"),
+                options.getOrDefault("election", "SEQUENTIAL"),
+                options.getOrDefault("watch", "ONE_SHOT"),
+                Integer.parseInt(options.getOrDefault("rounds", "10")));
+        for (String size : options.getOrDefault("sizes", "3,10,50,100,300").split(",")) {
+            benchmark.run(Integer.parseInt(size.trim()));
+        }
+    }
+
+    /**
+     * One cluster size, on a fresh ZooKeeper server so sizes don't see each other's leftovers
+     */
+    private void run(int size) throws Exception {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        List<Contender> cluster = new ArrayList<>();
+        long[] timeToLeader = new long[rounds];
+        long[] leaderless = new long[rounds];
+        long[] ops = new long[rounds];
+        long[] events = new long[rounds];
+
+        try (EmbeddedZooKeeper zk = new EmbeddedZooKeeper()) {
+            Map<String, Object> properties = new HashMap<>();
+            properties.put("zkConnectString", zk.connectString());
+            properties.put("zkNamespace", "bench");
+            properties.put("zookeeper.session.timeout", SESSION_TIMEOUT);
+            properties.put("election.mode", election);
+            properties.put("zookeeper.watch.mode", watch);
+
+            logger.info("Starting {} contenders ({} / {})", size, election, watch);
+            for (int i = 0; i < size; i++) {
+                cluster.add(newContender(properties, i, registry));
+            }
+            settle(cluster, size);
+
+            for (int r = 0; r < rounds; r++) {
+                Contender leader = findLeader(cluster);
+                String oldLeader = leader.state().getMyId();
+                Set<Contender> survivors = ConcurrentHashMap.newKeySet();
+                survivors.addAll(cluster);
+                survivors.remove(leader);
+
+                Round current = new Round(oldLeader, survivors, registry);
+                round = current;
+                if (failure.equals("expire")) {
+                    current.start(leader.expireSession(zk.connectString(), SESSION_TIMEOUT));
+                } else {
+                    current.start(System.nanoTime());
+                    cluster.remove(leader);
+                    leader.close();
+                }
+                current.checkConverged();   // In case every survivor already moved on before start() was set
+                if (!current.done.await(FAILOVER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    throw new IllegalStateException("No new leader within " + FAILOVER_TIMEOUT_MS + " ms");
+                }
+                round = null;
+
+                timeToLeader[r] = current.newLeaderAt.get() - current.failedAt;
+                leaderless[r] = current.convergedAt - current.failedAt;
+                ops[r] = current.opsInWindow;
+                events[r] = current.eventsInWindow;
+
+                if (failure.equals("kill")) {
+                    cluster.add(newContender(properties, size + r, registry));
+                }
+                settle(cluster, size);
+            }
+        } finally {
+            for (Contender contender : cluster) {
+                contender.close();
+            }
+        }
+
+        System.out.printf("%nN=%d failure=%s election=%s watch=%s rounds=%d%n", size, failure, election, watch, rounds);
+        printRow("time to new leader (ms)", toMillis(timeToLeader));
+        printRow("leaderless window (ms)", toMillis(leaderless));
+        printRow("zk ops per failover", ops);
+        printRow("watch events per failover", events);
+    }
+
+    private Contender newContender(Map<String, Object> properties, int index, MeterRegistry registry) {
+        Map<String, Object> own = new HashMap<>(properties);
+        own.put("myDescription", "contender-" + index);
+        Contender[] self = new Contender[1];
+        Contender contender = new Contender(own, objectMapper, registry, state -> {
+            Round current = round;
+            if (current != null && self[0] != null) {
+                current.onState(self[0], state);
+            }
+        });
+        self[0] = contender;
+        return contender;
+    }
+
+    /**
+     * Wait until every contender is ready, agrees on one leader (which is leading) and sees the full cluster
+     */
+    private void settle(List<Contender> cluster, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + SETTLE_TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            if (settled(cluster, size)) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        throw new IllegalStateException("Cluster of " + size + " did not settle within " + SETTLE_TIMEOUT_MS + " ms");
+    }
+
+    private boolean settled(List<Contender> cluster, int size) {
+        String leader = null;
+        int leading = 0;
+        for (Contender contender : cluster) {
+            ClusterState state = contender.state();
+            if (!state.isReady() || state.getCurrentLeader() == null || state.getPeers().size() != size) {
+                return false;
+            }
+            if (leader == null) {
+                leader = state.getCurrentLeader();
+            } else if (!leader.equals(state.getCurrentLeader())) {
+                return false;
+            }
+            if (state.getLeaderStatus() == LeaderStatus.LEADING) {
+                leading++;
+            }
+        }
+        return leading == 1;
+    }
+
+    private Contender findLeader(List<Contender> cluster) {
+        for (Contender contender : cluster) {
+            if (contender.state().getLeaderStatus() == LeaderStatus.LEADING) {
+                return contender;
+            }
+        }
+        throw new IllegalStateException("No leader in a settled cluster");
+    }
+
+    private static long[] toMillis(long[] nanos) {
+        long[] millis = new long[nanos.length];
+        for (int i = 0; i < nanos.length; i++) {
+            millis[i] = TimeUnit.NANOSECONDS.toMillis(nanos[i]);
+        }
+        return millis;
+    }
+
+    private static void printRow(String label, long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        System.out.printf("  %-28s p50 %6d   p90 %6d   p99 %6d   max %6d   mean %8.1f%n", label,
+                percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+                sorted[sorted.length - 1], Arrays.stream(sorted).average().orElse(0));
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;   // Nearest rank
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static long count(MeterRegistry registry, String timer) {
+        long total = 0;
+        for (Timer t : registry.find(timer).timers()) {
+            total += t.count();
+        }
+        return total;
+    }
+
+    /**
+     * One failover, filled in by the contenders' state listeners (ZK event threads)
+     */
+    private static final class Round {
+        private final String oldLeader;
+        private final Set<Contender> pending;   // Survivors that haven't seen the new leader yet
+        private final MeterRegistry registry;
+        private final long opsBefore;
+        private final long eventsBefore;
+        private final AtomicLong newLeaderAt = new AtomicLong();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile long failedAt;
+        private long convergedAt;       // Written before done.countDown(), read after await()
+        private long opsInWindow;
+        private long eventsInWindow;
+
+        private Round(String oldLeader, Set<Contender> survivors, MeterRegistry registry) {
+            this.oldLeader = oldLeader;
+            this.pending = survivors;
+            this.registry = registry;
+            this.opsBefore = count(registry, "zk.operation");
+            this.eventsBefore = count(registry, "zk.event.processing");
+        }
+
+        private void start(long failedAt) {
+            this.failedAt = failedAt;
+        }
+
+        private void onState(Contender contender, ClusterState state) {
+            String leader = state.getCurrentLeader();
+            if (failedAt == 0 || leader == null || leader.equals(oldLeader)) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (state.getLeaderStatus() == LeaderStatus.LEADING) {
+                newLeaderAt.compareAndSet(0, now);
+            }
+            if (pending.remove(contender) && pending.isEmpty()) {
+                finish(now);
+            }
+        }
+
+        /**
+         * Listener calls that came before failedAt was set are re-checked here from the published snapshots
+         */
+        private void checkConverged() {
+            for (Contender contender : pending) {
+                onState(contender, contender.state());
+            }
+        }
+
+        private synchronized void finish(long now) {
+            if (done.getCount() == 0) {
+                return;
+            }
+            newLeaderAt.compareAndSet(0, now);   // Only possible if the leader's own update was the one re-checked
+            convergedAt = now;
+            opsInWindow = count(registry, "zk.operation") - opsBefore;
+            eventsInWindow = count(registry, "zk.event.processing") - eventsBefore;
+            done.countDown();
+        }
+    }
+}
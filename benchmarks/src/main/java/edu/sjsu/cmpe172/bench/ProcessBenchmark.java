@@ -0,0 +1,99 @@
+package edu.sjsu.cmpe172.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.sjsu.cmpe172.ZooKeeperService;
+import edu.sjsu.cmpe172.ZooKeeperStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ZooKeeperService.process(): dispatch plus the handler work each event triggers
+ * The client is a StubZooKeeper, so reads are answered on this thread and the numbers are pure CPU
+ * - LEADER_CHANGED: exists + getData on /leader, same leader, no new snapshot
+ * - PEER_DATA_CHANGED: one peer's metadata re-read and re-cached
+ * - PEERS_CHANGED: child event on /peers (ONE_SHOT), folded into the pending coalesced refresh
+ * - UNRELATED: an event for a path nobody handles
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessBenchmark {
+    private static final String PREFIX = "/bench";
+
+    @Param({"10", "1000"})
+    private int peers;
+
+    @Param({"LEADER_CHANGED", "PEER_DATA_CHANGED", "PEERS_CHANGED", "UNRELATED"})
+    private String event;
+
+    private AnnotationConfigApplicationContext context;
+    private ZooKeeperService service;
+    private WatchedEvent watchedEvent;
+
+    @Setup
+    public void setup() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("zkConnectString", "127.0.0.1:1");
+        properties.put("zkNamespace", PREFIX.substring(1));
+        properties.put("myDescription", "bench");
+        context = Contender.newContext(properties, objectMapper, new SimpleMeterRegistry());
+        service = context.getBean(ZooKeeperService.class);
+
+        // The tree the stub answers from: N peers with metadata, peer 0 is the leader
+        List<String> peerIds = new ArrayList<>();
+        Map<String, byte[]> data = new HashMap<>();
+        for (int i = 0; i < peers; i++) {
+            String id = String.format("peer-%010d", i);
+            peerIds.add(id);
+            data.put(PREFIX + "/peers/" + id, objectMapper.writeValueAsBytes(objectMapper.createObjectNode()
+                    .put("description", "node-" + i).put("host", "10.0.0." + (i % 256)).put("port", 8082)));
+        }
+        data.put(PREFIX + "/leader", peerIds.get(0).getBytes(StandardCharsets.UTF_8));
+        Map<String, List<String>> children = Map.of(PREFIX + "/peers", peerIds, PREFIX + "/election", List.of());
+
+        // Pretend bootstrap already happened: connected, registered as the last peer, watching
+        ReflectionTestUtils.setField(service, "zooKeeper", new StubZooKeeper(data, children));
+        ReflectionTestUtils.setField(service, "zkStatus", ZooKeeperStatus.CONNECTED);
+        ReflectionTestUtils.setField(service, "myId", peerIds.get(peers - 1));
+        ReflectionTestUtils.setField(service, "wantsToLead", false);
+        ReflectionTestUtils.invokeMethod(service, "onPeersList", 0, new ArrayList<>(peerIds));
+        service.process(event(EventType.NodeDataChanged, PREFIX + "/leader"));
+
+        watchedEvent = switch (event) {
+            case "LEADER_CHANGED" -> event(EventType.NodeDataChanged, PREFIX + "/leader");
+            case "PEER_DATA_CHANGED" -> event(EventType.NodeDataChanged, PREFIX + "/peers/" + peerIds.get(peers / 2));
+            case "PEERS_CHANGED" -> event(EventType.NodeChildrenChanged, PREFIX + "/peers");
+            default -> event(EventType.NodeDataChanged, PREFIX + "/somewhere/else");
+        };
+    }
+
+    private static WatchedEvent event(EventType type, String path) {
+        return new WatchedEvent(type, KeeperState.SyncConnected, path);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void process() {
+        service.process(watchedEvent);
+    }
+}
@@ -0,0 +1,121 @@
+package edu.sjsu.cmpe172.bench;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.sjsu.cmpe172.ClusterState;
+import edu.sjsu.cmpe172.LeaderController;
+import edu.sjsu.cmpe172.LeaderStatus;
+import edu.sjsu.cmpe172.PeerInfo;
+import edu.sjsu.cmpe172.ZooKeeperService;
+import edu.sjsu.cmpe172.ZooKeeperStatus;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * GET /leader read path, by number of peers                          // reference: https://github.com/openjdk/jmh/tree/master/jmh-samples/src/main/java/org/openjdk/jmh/samples
+ * - buildAndSerialize: what every state change costs (snapshot + LeaderResponse + Jackson)
+ * - getLeaderStatus / getLeaderStatusDetails: the controller between changes (cached bytes + ETag check)
+ * - getLeaderStatusNotModified: a client that sends If-None-Match (304, no body)
+ * Run with -prof gc to see bytes allocated per call
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StatusReadBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    private int peers;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private List<String> peerIds;
+    private Map<String, PeerInfo> peerDetails;
+    private LeaderController controller;
+    private MockHttpServletRequest plainRequest;
+    private MockHttpServletRequest conditionalRequest;
+    private MockHttpServletResponse response;
+
+    @Setup
+    public void setup() throws JsonProcessingException {
+        List<String> ids = new ArrayList<>(peers);
+        Map<String, PeerInfo> details = new HashMap<>();
+        for (int i = 0; i < peers; i++) {
+            String id = String.format("peer-%010d", i);
+            ids.add(id);
+            details.put(id, new PeerInfo(id, "node-" + i, "10.0." + (i / 256) + "." + (i % 256), 8082,
+                    1_700_000_000_000L + i));
+        }
+        peerIds = List.copyOf(ids);   // The service only ever publishes read-only lists
+        peerDetails = Map.copyOf(details);
+
+        // A service that never connects, holding one fixed snapshot
+        ZooKeeperService service = new ZooKeeperService();
+        ClusterState state = newState();
+        @SuppressWarnings("unchecked")
+        AtomicReference<ClusterState> published =
+                (AtomicReference<ClusterState>) ReflectionTestUtils.getField(service, "state");
+        published.set(state);
+
+        controller = new LeaderController();
+        ReflectionTestUtils.setField(controller, "zooKeeperService", service);
+        ReflectionTestUtils.setField(controller, "objectMapper", objectMapper);
+
+        plainRequest = new MockHttpServletRequest("GET", "/leader");
+        response = new MockHttpServletResponse();
+        // Ask once to learn the ETag, then send it back like a polling client would
+        String etag = getLeaderStatus().getHeaders().getETag();
+        conditionalRequest = new MockHttpServletRequest("GET", "/leader");
+        conditionalRequest.addHeader("If-None-Match", etag);
+    }
+
+    /**
+     * Spring wraps every request in a new ServletWebRequest too; the mocks are reused so they don't
+     * show up in the allocation numbers (the status is reset, a 304 sticks to the response otherwise)
+     */
+    private ServletWebRequest webRequest(MockHttpServletRequest request) {
+        response.setStatus(200);
+        return new ServletWebRequest(request, response);
+    }
+
+    private ClusterState newState() {
+        return new ClusterState(1, true, LeaderStatus.LEADING, ZooKeeperStatus.CONNECTED,
+                peerIds.get(0), peerIds.get(0), "bench", peerIds, peerDetails);
+    }
+
+    @Benchmark
+    public byte[] buildAndSerialize() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(newState().getResponse());
+    }
+
+    @Benchmark
+    public byte[] buildAndSerializeDetails() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(newState().getDetailedResponse());
+    }
+
+    @Benchmark
+    public ResponseEntity<byte[]> getLeaderStatus() throws JsonProcessingException {
+        return controller.getLeaderStatus(webRequest(plainRequest), false);
+    }
+
+    @Benchmark
+    public ResponseEntity<byte[]> getLeaderStatusDetails() throws JsonProcessingException {
+        return controller.getLeaderStatus(webRequest(plainRequest), true);
+    }
+
+    @Benchmark
+    public ResponseEntity<byte[]> getLeaderStatusNotModified() throws JsonProcessingException {
+        return controller.getLeaderStatus(webRequest(conditionalRequest), false);   // null = 304
+    }
+}
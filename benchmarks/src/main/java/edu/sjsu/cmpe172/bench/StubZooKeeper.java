@@ -0,0 +1,83 @@
+package edu.sjsu.cmpe172.bench;
+
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ZooKeeper client that answers reads from a fixed in-memory tree, on the calling thread
+ * Writes and anything else are swallowed (their callbacks never run)
+ * The real client underneath points at a closed port, so it never connects and never sends anything
+ */
+final class StubZooKeeper extends ZooKeeper {
+    private final Map<String, byte[]> data;            // path -> node data
+    private final Map<String, List<String>> children;  // path -> child names
+    private final Stat stat = new Stat();
+
+    StubZooKeeper(Map<String, byte[]> data, Map<String, List<String>> children) throws IOException {
+        super("127.0.0.1:1", 30000, event -> { });
+        this.data = data;
+        this.children = children;
+    }
+
+    @Override
+    public void exists(String path, Watcher watcher, AsyncCallback.StatCallback cb, Object ctx) {
+        exists(path, false, cb, ctx);
+    }
+
+    @Override
+    public void exists(String path, boolean watch, AsyncCallback.StatCallback cb, Object ctx) {
+        boolean found = data.containsKey(path) || children.containsKey(path);
+        cb.processResult(found ? Code.OK.intValue() : Code.NONODE.intValue(), path, ctx, found ? stat : null);
+    }
+
+    @Override
+    public void getData(String path, Watcher watcher, AsyncCallback.DataCallback cb, Object ctx) {
+        getData(path, false, cb, ctx);
+    }
+
+    @Override
+    public void getData(String path, boolean watch, AsyncCallback.DataCallback cb, Object ctx) {
+        byte[] bytes = data.get(path);
+        cb.processResult(bytes != null ? Code.OK.intValue() : Code.NONODE.intValue(), path, ctx, bytes,
+                bytes != null ? stat : null);
+    }
+
+    @Override
+    public void getChildren(String path, Watcher watcher, AsyncCallback.Children2Callback cb, Object ctx) {
+        getChildren(path, false, cb, ctx);
+    }
+
+    @Override
+    public void getChildren(String path, boolean watch, AsyncCallback.Children2Callback cb, Object ctx) {
+        List<String> names = children.get(path);
+        // Handlers sort what they get, so hand out a copy like the real client does
+        cb.processResult(names != null ? Code.OK.intValue() : Code.NONODE.intValue(), path, ctx,
+                names != null ? new ArrayList<>(names) : null, names != null ? stat : null);
+    }
+
+    @Override
+    public void create(String path, byte[] data, List<org.apache.zookeeper.data.ACL> acl,
+                       org.apache.zookeeper.CreateMode createMode, AsyncCallback.StringCallback cb, Object ctx) {
+    }
+
+    @Override
+    public void create(String path, byte[] data, List<org.apache.zookeeper.data.ACL> acl,
+                       org.apache.zookeeper.CreateMode createMode, AsyncCallback.Create2Callback cb, Object ctx) {
+    }
+
+    @Override
+    public void setData(String path, byte[] data, int version, AsyncCallback.StatCallback cb, Object ctx) {
+    }
+
+    @Override
+    public void delete(String path, int version, AsyncCallback.VoidCallback cb, Object ctx) {
+    }
+}
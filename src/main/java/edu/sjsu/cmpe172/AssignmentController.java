@@ -0,0 +1,121 @@
+package edu.sjsu.cmpe172;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Shard ownership from the consistent-hash ring, all from memory
+ */
+@RestController
+@RequestMapping("/leader/assignment")
+public class AssignmentController {
+
+    @Autowired
+    private ShardAssignmentService shardAssignmentService;
+
+    @Autowired
+    private ZooKeeperService zooKeeperService;
+
+    // GET /leader/assignment - My shards and how many every peer owns
+    // Test with curl: curl http://localhost:8082/leader/assignment
+    @GetMapping
+    public ResponseEntity<Overview> getAssignment() {
+        ShardAssignment assignment = shardAssignmentService.getAssignment();
+        String myId = zooKeeperService.getMyId();
+        Map<String, Integer> perPeer = new TreeMap<>();
+        assignment.getShardsByPeer().forEach((peer, shards) -> perPeer.put(peer, shards.size()));
+        return ResponseEntity.ok(new Overview(assignment.getVersion(), assignment.getShardCount(),
+                myId, assignment.shardsOf(myId), perPeer));
+    }
+
+    // GET /leader/assignment/{key} - Which shard a key falls in and who owns it
+    // Test with curl: curl http://localhost:8082/leader/assignment/customer-42
+    @GetMapping("/{key}")
+    public ResponseEntity<KeyOwner> getOwner(@PathVariable String key) {
+        ShardAssignment assignment = shardAssignmentService.getAssignment();
+        int shard = assignment.shardOf(key);
+        String owner = assignment.ownerOfShard(shard);
+        return ResponseEntity.ok(new KeyOwner(key, shard, owner,
+                owner != null && owner.equals(zooKeeperService.getMyId()), assignment.getVersion()));
+    }
+
+    // Body of GET /leader/assignment
+    public static final class Overview {
+        private final long version;
+        private final int shards;
+        private final String myid;
+        private final List<Integer> myShards;
+        private final Map<String, Integer> shardsPerPeer;
+
+        private Overview(long version, int shards, String myid, List<Integer> myShards,
+                         Map<String, Integer> shardsPerPeer) {
+            this.version = version;
+            this.shards = shards;
+            this.myid = myid;
+            this.myShards = myShards;
+            this.shardsPerPeer = shardsPerPeer;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public int getShards() {
+            return shards;
+        }
+
+        public String getMyid() {
+            return myid;
+        }
+
+        public List<Integer> getMyShards() {
+            return myShards;
+        }
+
+        public Map<String, Integer> getShardsPerPeer() {
+            return shardsPerPeer;
+        }
+    }
+
+    // Body of GET /leader/assignment/{key}
+    public static final class KeyOwner {
+        private final String key;
+        private final int shard;
+        private final String owner;
+        private final boolean mine;
+        private final long version;
+
+        private KeyOwner(String key, int shard, String owner, boolean mine, long version) {
+            this.key = key;
+            this.shard = shard;
+            this.owner = owner;
+            this.mine = mine;
+            this.version = version;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public int getShard() {
+            return shard;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        public boolean isMine() {
+            return mine;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+    }
+}
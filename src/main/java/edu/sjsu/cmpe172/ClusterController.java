@@ -0,0 +1,26 @@
+package edu.sjsu.cmpe172;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Every peer's own view of the cluster, gathered in one call
+ */
+@RestController
+@RequestMapping("/leader/cluster")
+public class ClusterController {
+
+    @Autowired
+    private ClusterHealthService clusterHealthService;
+
+    // GET /leader/cluster - Asks all peers' GET /leader in parallel and sums it up
+    // healthy = peers that answered, leaderAgreed = all of them name the same leader as this node
+    // Test with curl: curl http://localhost:8082/leader/cluster
+    @GetMapping
+    public CompletableFuture<ResponseEntity<ClusterHealth>> getCluster() {
+        return clusterHealthService.getClusterHealth().thenApply(ResponseEntity::ok);
+    }
+}
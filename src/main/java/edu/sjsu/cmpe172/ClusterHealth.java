@@ -0,0 +1,133 @@
+package edu.sjsu.cmpe172;
+
+import java.util.List;
+
+/**
+ * Aggregated result of one fan-out over every peer's GET /leader, built by ClusterHealthService
+ */
+public final class ClusterHealth {
+    public enum Status {
+        UP,          // Answered 200
+        DOWN,        // Refused, failed or answered with an error status
+        TIMEOUT,     // No answer within cluster.fanout.timeout
+        UNKNOWN      // Published no host/port, can't be asked
+    }
+
+    private final long takenAt;          // When the fan-out finished (ms since epoch)
+    private final String myid;
+    private final String leader;         // Leader as this node sees it
+    private final int healthy;           // Peers that answered (this node included)
+    private final boolean leaderAgreed;  // Every peer that answered names the same leader as this node
+    private final List<PeerHealth> peers;
+    final long takenAtNanos;             // For the cache age
+
+    ClusterHealth(String myid, String leader, List<PeerHealth> peers) {
+        this.takenAt = System.currentTimeMillis();
+        this.takenAtNanos = System.nanoTime();
+        this.myid = myid;
+        this.leader = leader;
+        this.peers = List.copyOf(peers);
+        int up = 0;
+        boolean agreed = true;
+        for (PeerHealth peer : peers) {
+            if (peer.status == Status.UP) {
+                up++;
+                agreed &= leader != null && leader.equals(peer.leader);
+            }
+        }
+        this.healthy = up;
+        this.leaderAgreed = agreed;
+    }
+
+    public long getTakenAt() {
+        return takenAt;
+    }
+
+    public String getMyid() {
+        return myid;
+    }
+
+    public String getLeader() {
+        return leader;
+    }
+
+    public int getHealthy() {
+        return healthy;
+    }
+
+    public boolean isLeaderAgreed() {
+        return leaderAgreed;
+    }
+
+    public List<PeerHealth> getPeers() {
+        return peers;
+    }
+
+    // One peer's answer (or why there wasn't one)
+    public static final class PeerHealth {
+        private final String id;
+        private final String host;
+        private final Integer port;
+        private final Status status;
+        private final long latencyMs;
+        private final String leader;      // Its view, null unless UP
+        private final String leaderStatus;
+        private final String zookeeper;
+        private final Boolean ready;
+        private final String error;
+
+        PeerHealth(String id, String host, Integer port, Status status, long latencyMs, String leader,
+                   String leaderStatus, String zookeeper, Boolean ready, String error) {
+            this.id = id;
+            this.host = host;
+            this.port = port;
+            this.status = status;
+            this.latencyMs = latencyMs;
+            this.leader = leader;
+            this.leaderStatus = leaderStatus;
+            this.zookeeper = zookeeper;
+            this.ready = ready;
+            this.error = error;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public Integer getPort() {
+            return port;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public long getLatencyMs() {
+            return latencyMs;
+        }
+
+        public String getLeader() {
+            return leader;
+        }
+
+        public String getLeaderStatus() {
+            return leaderStatus;
+        }
+
+        public String getZookeeper() {
+            return zookeeper;
+        }
+
+        public Boolean getReady() {
+            return ready;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package edu.sjsu.cmpe172;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Asks every peer's HTTP tier for its GET /leader, all at once
+ * One virtual thread per peer, each with its own cluster.fanout.timeout, so one call costs the slowest peer
+ * (at most the timeout) instead of the sum. Addresses come from the peer metadata already in memory.
+ * Results are kept for cluster.fanout.cache-ttl, and callers arriving while a fan-out runs share it.
+ */
+@Service
+public class ClusterHealthService {
+    private static final Logger logger = LoggerFactory.getLogger(ClusterHealthService.class);
+
+    @Autowired
+    private ZooKeeperService zooKeeperService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${cluster.fanout.timeout:1000}")
+    // How long each peer gets to answer (ms)
+    private long timeout;
+
+    @Value("${cluster.fanout.cache-ttl:1000}")
+    // How long a fan-out result is served again before peers are asked anew (ms); 0 = always ask
+    private long cacheTtl;
+
+    private final ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor();
+    private HttpClient httpClient;
+
+    private volatile ClusterHealth cached;
+    private final AtomicReference<CompletableFuture<ClusterHealth>> inFlight = new AtomicReference<>();
+
+    @PostConstruct
+    public void init() {
+        httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(timeout))
+                .executor(virtualThreads)
+                .build();
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        virtualThreads.shutdownNow();
+    }
+
+    /**
+     * The cached view if it is fresh enough, otherwise the result of the running (or a new) fan-out
+     */
+    public CompletableFuture<ClusterHealth> getClusterHealth() {
+        ClusterHealth current = cached;
+        if (current != null && System.nanoTime() - current.takenAtNanos < TimeUnit.MILLISECONDS.toNanos(cacheTtl)) {
+            return CompletableFuture.completedFuture(current);
+        }
+        CompletableFuture<ClusterHealth> mine = new CompletableFuture<>();
+        CompletableFuture<ClusterHealth> running = inFlight.compareAndExchange(null, mine);
+        if (running != null) {
+            return running;   // Somebody else is asking already
+        }
+        fanOut().whenComplete((health, error) -> {
+            if (health != null) {
+                cached = health;
+            }
+            inFlight.set(null);
+            if (error != null) {
+                mine.completeExceptionally(error);
+            } else {
+                mine.complete(health);
+            }
+        });
+        return mine;
+    }
+
+    private CompletableFuture<ClusterHealth> fanOut() {
+        ClusterState state = zooKeeperService.getClusterState();
+        List<CompletableFuture<ClusterHealth.PeerHealth>> probes = new ArrayList<>();
+        for (String peer : state.getPeers()) {
+            PeerInfo info = state.getPeerDetails().get(peer);
+            if (peer.equals(state.getMyId())) {
+                // No need to ask myself over HTTP
+                probes.add(CompletableFuture.completedFuture(new ClusterHealth.PeerHealth(peer,
+                        info == null ? null : info.getHost(), info == null ? null : info.getPort(),
+                        ClusterHealth.Status.UP, 0, state.getCurrentLeader(), state.getLeaderStatus().name(),
+                        state.getZkStatus().name(), state.isReady(), null)));
+            } else if (info == null || info.getHost() == null || info.getPort() == null) {
+                probes.add(CompletableFuture.completedFuture(new ClusterHealth.PeerHealth(peer, null, null,
+                        ClusterHealth.Status.UNKNOWN, 0, null, null, null, null, "No address published")));
+            } else {
+                probes.add(CompletableFuture.supplyAsync(() -> probe(info), virtualThreads));
+            }
+        }
+        return CompletableFuture.allOf(probes.toArray(new CompletableFuture<?>[0]))
+                .thenApply(done -> new ClusterHealth(state.getMyId(), state.getCurrentLeader(),
+                        probes.stream().map(CompletableFuture::join).toList()));
+    }
+
+    /**
+     * One blocking GET, run on its own virtual thread
+     */
+    private ClusterHealth.PeerHealth probe(PeerInfo info) {
+        long start = System.nanoTime();
+        try {
+            HttpRequest request = HttpRequest.newBuilder(
+                            URI.create("http://" + info.getHost() + ":" + info.getPort() + "/leader"))
+                    .timeout(Duration.ofMillis(timeout))
+                    .GET()
+                    .build();
+            HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (response.statusCode() != 200) {
+                return failed(info, ClusterHealth.Status.DOWN, latency, "HTTP " + response.statusCode());
+            }
+            JsonNode body = objectMapper.readTree(response.body());
+            return new ClusterHealth.PeerHealth(info.getId(), info.getHost(), info.getPort(),
+                    ClusterHealth.Status.UP, latency,
+                    body.path("leader").asText(null), body.path("status").asText(null),
+                    body.path("zookeeper").asText(null),
+                    body.hasNonNull("ready") ? body.get("ready").asBoolean() : null, null);
+        } catch (HttpTimeoutException e) {
+            return failed(info, ClusterHealth.Status.TIMEOUT, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                    e.getMessage());
+        } catch (IOException | IllegalArgumentException e) {
+            logger.debug("Peer {} did not answer", info.getId(), e);
+            return failed(info, ClusterHealth.Status.DOWN, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                    e.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return failed(info, ClusterHealth.Status.DOWN, 0, "Interrupted");
+        }
+    }
+
+    private static ClusterHealth.PeerHealth failed(PeerInfo info, ClusterHealth.Status status, long latency, String error) {
+        return new ClusterHealth.PeerHealth(info.getId(), info.getHost(), info.getPort(), status, latency,
+                null, null, null, null, error);
+    }
+}
@@ -0,0 +1,149 @@
+package edu.sjsu.cmpe172;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Immutable snapshot of what this node knows about the cluster
+ * ZooKeeperService builds a new one every time something changes and publishes it through one AtomicReference,
+ * so readers always see a consistent combination (never LEADING with someone else's leader ID)
+ * The response body is built once here, the controller just hands it out
+ * (the one with peer details only when someone asks for it)
+ * A stale snapshot (not ready: disconnected, read-only, or just restarted) shows the last confirmed leader and peers,
+ * and its response says how old they are
+ */
+public final class ClusterState {
+    private final long version;               // Bumped on every change, starts at 0
+    private final boolean ready;              // Connected, registered and the leader is known
+    private final LeaderStatus leaderStatus;  // my status
+    private final ZooKeeperStatus zkStatus;   // connection status
+    private final String currentLeader;       // Current leader's ID
+    private final String myId;                // my ID
+    private final List<String> peers;         // list of all nodes (read-only)
+    private final Map<String, PeerInfo> peerDetails;   // Metadata per peer, for the ones read so far (read-only)
+    private final boolean stale;              // Leader/peers are the last confirmed ones, not a live view
+    private final long confirmedAt;           // When they were last confirmed (ms since epoch, 0 = never)
+    private final LeaderResponse response;    // Pre-built body for GET /leader
+
+    public ClusterState(long version, boolean ready, LeaderStatus leaderStatus, ZooKeeperStatus zkStatus,
+                        String currentLeader, String myId, String myDescription, List<String> peers,
+                        Map<String, PeerInfo> peerDetails) {
+        this(version, ready, leaderStatus, zkStatus, currentLeader, myId, myDescription, peers, peerDetails, false, 0);
+    }
+
+    public ClusterState(long version, boolean ready, LeaderStatus leaderStatus, ZooKeeperStatus zkStatus,
+                        String currentLeader, String myId, String myDescription, List<String> peers,
+                        Map<String, PeerInfo> peerDetails, boolean stale, long confirmedAt) {
+        this.version = version;
+        this.ready = ready;
+        this.leaderStatus = leaderStatus;
+        this.zkStatus = zkStatus;
+        this.currentLeader = currentLeader;
+        this.myId = myId;
+        this.peers = List.copyOf(peers);
+        this.peerDetails = Map.copyOf(peerDetails);
+        this.stale = stale;
+        this.confirmedAt = confirmedAt;
+        this.response = new LeaderResponse(
+                leaderStatus.name(),    // Convert the enumeration to a string
+                zkStatus.name(),
+                currentLeader,
+                myId,
+                myDescription,
+                this.peers,
+                version,
+                ready
+        );
+    }
+
+    /**
+     * True if building a new snapshot from these values would change nothing
+     */
+    boolean sameAs(boolean ready, LeaderStatus leaderStatus, ZooKeeperStatus zkStatus,
+                   String currentLeader, String myId, List<String> peers, Map<String, PeerInfo> peerDetails,
+                   boolean stale, long confirmedAt) {
+        return this.ready == ready
+                && this.leaderStatus == leaderStatus
+                && this.zkStatus == zkStatus
+                && Objects.equals(this.currentLeader, currentLeader)
+                && Objects.equals(this.myId, myId)
+                && this.peers.equals(peers)
+                && this.peerDetails.equals(peerDetails)
+                && this.stale == stale
+                && this.confirmedAt == confirmedAt;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public LeaderStatus getLeaderStatus() {
+        return leaderStatus;
+    }
+
+    public ZooKeeperStatus getZkStatus() {
+        return zkStatus;
+    }
+
+    public String getCurrentLeader() {
+        return currentLeader;
+    }
+
+    public String getMyId() {
+        return myId;
+    }
+
+    public List<String> getPeers() {
+        return peers;
+    }
+
+    public Map<String, PeerInfo> getPeerDetails() {
+        return peerDetails;
+    }
+
+    public boolean isStale() {
+        return stale;
+    }
+
+    public long getConfirmedAt() {
+        return confirmedAt;
+    }
+
+    /**
+     * The pre-built body; a stale snapshot gets a copy carrying its age right now
+     */
+    public LeaderResponse getResponse() {
+        return stale ? copyResponse(null) : response;
+    }
+
+    /**
+     * Response for GET /leader?details=true: the same body plus one PeerInfo per peer, in peer order
+     */
+    public LeaderResponse getDetailedResponse() {
+        List<PeerInfo> details = new ArrayList<>(peers.size());
+        for (String peer : peers) {
+            PeerInfo info = peerDetails.get(peer);
+            if (info != null) {
+                details.add(info);   // Peers whose data is still being read are left out
+            }
+        }
+        return copyResponse(details);
+    }
+
+    private LeaderResponse copyResponse(List<PeerInfo> details) {
+        LeaderResponse copy = new LeaderResponse(response.getStatus(), response.getZookeeper(),
+                response.getLeader(), response.getMyid(), response.getDescription(), peers, version, ready);
+        copy.setPeerDetails(details);
+        if (stale && confirmedAt > 0) {
+            copy.setConfirmedAt(confirmedAt);
+            copy.setStaleMs(Math.max(0, System.currentTimeMillis() - confirmedAt));
+        }
+        return copy;
+    }
+}
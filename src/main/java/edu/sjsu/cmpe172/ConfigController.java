@@ -0,0 +1,44 @@
+package edu.sjsu.cmpe172;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.util.UrlPathHelper;
+
+import jakarta.servlet.http.HttpServletRequest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The mirrored config subtree: /leader/config/{path}, all from memory
+ */
+@RestController
+@RequestMapping("/leader/config")
+public class ConfigController {
+    private static final String PREFIX = "/leader/config";
+
+    @Autowired
+    private ConfigTreeService configTreeService;
+
+    // GET /leader/config/** - One config node: its data as text, children and versions
+    // 404 if it doesn't exist, 503 if the cache hasn't finished its first walk and doesn't know it yet
+    // Test with curl: curl http://localhost:8082/leader/config/routing/eu
+    @GetMapping({"", "/**"})
+    public ResponseEntity<Map<String, Object>> getNode(HttpServletRequest request) {
+        String path = UrlPathHelper.defaultInstance.getPathWithinApplication(request).substring(PREFIX.length());
+        ConfigNode node = configTreeService.get(path);
+        if (node == null) {
+            return ResponseEntity.status(configTreeService.isSynced() ? HttpStatus.NOT_FOUND : HttpStatus.SERVICE_UNAVAILABLE)
+                    .build();
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("path", node.getPath());
+        body.put("data", node.getText());
+        body.put("version", node.getVersion());
+        body.put("children", node.getChildren());
+        body.put("cacheVersion", node.getCacheVersion());
+        body.put("synced", configTreeService.isSynced());
+        return ResponseEntity.ok(body);
+    }
+}
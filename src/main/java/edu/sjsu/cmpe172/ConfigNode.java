@@ -0,0 +1,67 @@
+package edu.sjsu.cmpe172;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * One node of the mirrored config subtree, as last seen in ZooKeeper
+ * Immutable: ConfigTreeService swaps in a new one for every change, so a reader always sees data,
+ * versions and children that belong together
+ */
+public final class ConfigNode {
+    private final String path;          // Relative to the config root, "/" for the root itself
+    private final byte[] data;
+    private final String text;          // data as UTF-8, decoded once
+    private final int version;          // ZK data version
+    private final long mzxid;           // zxid of the last data change; a read older than this is ignored
+    private final long cacheVersion;    // Cache version in which this node last changed
+    private final List<String> children;   // Child names, sorted (read-only)
+
+    ConfigNode(String path, byte[] data, int version, long mzxid, long cacheVersion, List<String> children) {
+        this.path = path;
+        this.data = data == null ? new byte[0] : data;
+        this.text = new String(this.data, StandardCharsets.UTF_8);
+        this.version = version;
+        this.mzxid = mzxid;
+        this.cacheVersion = cacheVersion;
+        this.children = List.copyOf(children);
+    }
+
+    /**
+     * Same data, new child list
+     */
+    ConfigNode withChildren(List<String> children, long cacheVersion) {
+        return new ConfigNode(path, data, version, mzxid, cacheVersion, children);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * A copy of the raw bytes; getText() avoids the copy
+     */
+    public byte[] getData() {
+        return data.clone();
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public long getMzxid() {
+        return mzxid;
+    }
+
+    public long getCacheVersion() {
+        return cacheVersion;
+    }
+
+    public List<String> getChildren() {
+        return children;
+    }
+}
@@ -0,0 +1,576 @@
+package edu.sjsu.cmpe172;
+
+import org.apache.zookeeper.*;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.common.PathUtils;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+/**
+ * Local mirror of a config subtree (config.tree.path under the namespace) that the leader publishes
+ * Every node keeps the whole subtree in memory; reads are one map lookup and never go to ZooKeeper.
+ * The mirror is kept current by watches on ZooKeeperService's session: ONE_SHOT mode sets a data and a child
+ * watch per node, PERSISTENT mode gets every change from the root watch. Each event costs one targeted read,
+ * and only the node it names is replaced: a read older than what the cache holds (mzxid) is dropped,
+ * and every applied change bumps the cache version.
+ * A new session (or a PERSISTENT reconnect) re-walks the tree; meanwhile readers keep the last known values,
+ * isSynced() says when the walk is done.
+ * The leader's writes are fenced at ZooKeeper with its lease token, see fenced().
+ */
+@Service
+public class ConfigTreeService implements Watcher, SessionListener {
+    private static final Logger logger = LoggerFactory.getLogger(ConfigTreeService.class);
+
+    @Autowired
+    private ZooKeeperService zooKeeperService;
+
+    @Autowired
+    private ZooKeeperMetrics metrics;
+
+    @Value("${config.tree.path:/config}")
+    // Subtree to mirror, relative to the namespace
+    private String treePath;
+
+    private String ROOT_PATH;      // Absolute path of the mirrored subtree
+    private String FENCE_PATH;     // Token of the newest leader that published, next to the subtree (not mirrored)
+    private WatchMode watchMode;
+
+    // Working state, guarded by this
+    private ZooKeeper zooKeeper;   // The shared client, null while there is no registered session
+    private int sessionGeneration; // Bumped with every session, so callbacks from a dead one can be told apart
+    private int readsInFlight;     // Outstanding reads of this session
+    private long fenceToken = LeadershipLease.NO_TOKEN;   // Token my claim on the fence was made with
+    private CompletableFuture<Integer> fence;             // That claim (maybe still running), gives the fence version
+
+    // What readers see
+    private final ConcurrentHashMap<String, ConfigNode> nodes = new ConcurrentHashMap<>();   // Relative path -> node
+    private volatile long version;       // Bumped with every applied change
+    private volatile boolean synced;     // This session's walk of the tree is complete
+
+    // Told about every change (node = null: deleted); called on the ZK event thread with the lock held, don't block
+    private final List<BiConsumer<String, ConfigNode>> listeners = new CopyOnWriteArrayList<>();
+
+    @PostConstruct
+    public void init() {
+        PathUtils.validatePath(treePath);
+        if (treePath.equals("/")) {
+            throw new IllegalArgumentException("config.tree.path can't be the namespace root");
+        }
+        ROOT_PATH = zooKeeperService.getNamespacePath() + treePath;
+        FENCE_PATH = ROOT_PATH + "-fence";
+        watchMode = zooKeeperService.getWatchMode();
+        zooKeeperService.addSessionListener(this);
+        logger.info("Mirroring config tree {}", ROOT_PATH);
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        zooKeeperService.removeSessionListener(this);
+    }
+
+    // ========== Read API (lock-free) ==========
+
+    /**
+     * The node at a path relative to the config root ("/" or "" is the root), null if it doesn't exist
+     */
+    public ConfigNode get(String path) {
+        return nodes.get(normalize(path));
+    }
+
+    /**
+     * Data of a node as text, null if it doesn't exist
+     */
+    public String getText(String path) {
+        ConfigNode node = get(path);
+        return node == null ? null : node.getText();
+    }
+
+    /**
+     * Child names of a node, sorted; empty if it doesn't exist
+     */
+    public List<String> getChildren(String path) {
+        ConfigNode node = get(path);
+        return node == null ? List.of() : node.getChildren();
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isSynced() {
+        return synced;
+    }
+
+    public void addChangeListener(BiConsumer<String, ConfigNode> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeChangeListener(BiConsumer<String, ConfigNode> listener) {
+        listeners.remove(listener);
+    }
+
+    // ========== Publishing (leader only) ==========
+
+    /**
+     * Write a node, creating it and any missing parents; only while holding the leadership lease
+     * Fails with IllegalStateException without the lease, or once a newer leader has published (see fenced())
+     * Every node (this one too) sees the change through its watches
+     */
+    public synchronized CompletableFuture<Void> publish(String path, byte[] data) {
+        String rel = normalize(path);
+        PathUtils.validatePath(rel);
+        return fenced().thenCompose(fence -> write(rel, data, fence));
+    }
+
+    /**
+     * Delete a node that has no children; only while holding the leadership lease, like publish()
+     */
+    public synchronized CompletableFuture<Void> remove(String path) {
+        String rel = normalize(path);
+        PathUtils.validatePath(rel);
+        return fenced().thenCompose(fence -> delete(rel, fence));
+    }
+
+    private synchronized CompletableFuture<Void> write(String rel, byte[] data, int fence) {
+        if (zooKeeper == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("No ZooKeeper session"));
+        }
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        // Parents first, pipelined; "already exists" is the normal answer
+        if (!rel.equals("/")) {
+            createParent(ROOT_PATH, fence);
+        }
+        for (int slash = rel.indexOf('/', 1); slash > 0; slash = rel.indexOf('/', slash + 1)) {
+            createParent(absolute(rel.substring(0, slash)), fence);
+        }
+        String target = absolute(rel);
+        ZooKeeper client = zooKeeper;   // The callback runs without the lock
+        Op check = Op.check(FENCE_PATH, fence);
+        long start = System.nanoTime();
+        client.multi(List.of(check, Op.setData(target, data, -1)), (rc, p, ctx, results) -> {
+            metrics.recordOperation(ZkOperation.MULTI, start, rc);
+            if (rc == Code.NONODE.intValue()) {
+                long createStart = System.nanoTime();
+                client.multi(List.of(check, Op.create(target, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT)),
+                        (createRc, createPath, createCtx, createResults) -> {
+                            metrics.recordOperation(ZkOperation.MULTI, createStart, createRc);
+                            complete(result, createRc, target);
+                        }, null);
+            } else {
+                complete(result, rc, target);
+            }
+        }, null);
+        return result;
+    }
+
+    private synchronized CompletableFuture<Void> delete(String rel, int fence) {
+        if (zooKeeper == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("No ZooKeeper session"));
+        }
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        String target = absolute(rel);
+        long start = System.nanoTime();
+        zooKeeper.multi(List.of(Op.check(FENCE_PATH, fence), Op.delete(target, -1)), (rc, p, ctx, results) -> {
+            metrics.recordOperation(ZkOperation.MULTI, start, rc);
+            complete(result, rc == Code.NONODE.intValue() ? Code.OK.intValue() : rc, target);
+        }, null);
+        return result;
+    }
+
+    private void complete(CompletableFuture<Void> result, int rc, String path) {
+        if (rc == Code.OK.intValue()) {
+            result.complete(null);
+        } else if (rc == Code.BADVERSION.intValue()) {
+            // Only the fence check can fail like this: a newer leader has claimed it
+            fenceLost();
+            result.completeExceptionally(new IllegalStateException("A newer leader has published to the config tree"));
+        } else {
+            result.completeExceptionally(KeeperException.create(Code.get(rc), path));
+        }
+    }
+
+    // ========== Fencing ==========
+
+    /**
+     * The FENCE_PATH version my writes are checked against (every write is a multi() with an Op.check on it)
+     * The first write with a new token claims the fence: it stores the token there, unless a higher one
+     * is already stored. A newer leader's claim bumps the version, so from its first write on a deposed leader's
+     * writes fail at ZooKeeper, whatever its lease says; a deposed leader can't claim it back.
+     */
+    private synchronized CompletableFuture<Integer> fenced() {
+        long token = zooKeeperService.getLeadershipLease().validToken();
+        if (token == LeadershipLease.NO_TOKEN) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Not holding the leadership lease"));
+        }
+        if (zooKeeper == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("No ZooKeeper session"));
+        }
+        if (fence == null || fenceToken != token || fence.isCompletedExceptionally()) {
+            fenceToken = token;
+            fence = new CompletableFuture<>();
+            claimFence(zooKeeper, token, fence);
+        }
+        return fence;
+    }
+
+    private void claimFence(ZooKeeper client, long token, CompletableFuture<Integer> claim) {
+        long start = System.nanoTime();
+        client.getData(FENCE_PATH, false, (rc, path, ctx, data, stat) -> {
+            metrics.recordOperation(ZkOperation.GET_DATA, start, rc);
+            if (rc == Code.NONODE.intValue()) {
+                long createStart = System.nanoTime();
+                client.create(FENCE_PATH, encodeToken(token), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT,
+                        (createRc, createPath, createCtx, name) -> {
+                            metrics.recordOperation(ZkOperation.CREATE, createStart, createRc);
+                            onFenceClaimed(client, token, claim, createRc, 0);
+                        }, null);
+            } else if (rc != Code.OK.intValue()) {
+                claim.completeExceptionally(KeeperException.create(Code.get(rc), path));
+            } else if (decodeToken(data) > token) {
+                claim.completeExceptionally(new IllegalStateException("A newer leader has published to the config tree"));
+            } else {
+                long setStart = System.nanoTime();
+                client.setData(FENCE_PATH, encodeToken(token), stat.getVersion(), (setRc, setPath, setCtx, setStat) -> {
+                    metrics.recordOperation(ZkOperation.SET_DATA, setStart, setRc);
+                    onFenceClaimed(client, token, claim, setRc, setRc == Code.OK.intValue() ? setStat.getVersion() : 0);
+                }, null);
+            }
+        }, null);
+    }
+
+    private void onFenceClaimed(ZooKeeper client, long token, CompletableFuture<Integer> claim, int rc, int version) {
+        if (rc == Code.OK.intValue()) {
+            claim.complete(version);
+        } else if (rc == Code.NODEEXISTS.intValue() || rc == Code.BADVERSION.intValue()) {
+            claimFence(client, token, claim);   // Another leader claimed it in between; look at its token
+        } else {
+            claim.completeExceptionally(KeeperException.create(Code.get(rc), FENCE_PATH));
+        }
+    }
+
+    private synchronized void fenceLost() {
+        fence = null;
+        fenceToken = LeadershipLease.NO_TOKEN;
+    }
+
+    private static byte[] encodeToken(long token) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(token).array();
+    }
+
+    private static long decodeToken(byte[] data) {
+        return data != null && data.length == Long.BYTES ? ByteBuffer.wrap(data).getLong() : LeadershipLease.NO_TOKEN;
+    }
+
+    private void createParent(String path, int fence) {
+        long start = System.nanoTime();
+        zooKeeper.multi(List.of(Op.check(FENCE_PATH, fence),
+                Op.create(path, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT)),
+                (rc, p, ctx, results) -> {
+                    metrics.recordOperation(ZkOperation.MULTI, start, rc);
+                    // BADVERSION (fence lost) is reported by the write that follows
+                    if (rc != Code.OK.intValue() && rc != Code.NODEEXISTS.intValue() && rc != Code.BADVERSION.intValue()) {
+                        logger.error("Error creating config path", KeeperException.create(Code.get(rc), path));
+                    }
+                }, null);
+    }
+
+    // ========== Session hooks (ZooKeeperService lock held) ==========
+
+    @Override
+    public synchronized void onSessionStarted(ZooKeeper zooKeeper, String myId) {
+        this.zooKeeper = zooKeeper;
+        sessionGeneration++;
+        readsInFlight = 0;
+        synced = false;
+        watchRoot();
+    }
+
+    @Override
+    public synchronized void onReconnected() {
+        synced = false;
+        watchRoot();   // Changes made while I was away were not replayed
+    }
+
+    @Override
+    public synchronized void onSessionLost() {
+        zooKeeper = null;
+        sessionGeneration++;
+        readsInFlight = 0;
+        synced = false;   // The cache keeps serving what it had
+    }
+
+    @Override
+    public void onPersistentEvent(WatchedEvent event) {
+        onTreeEvent(event);
+    }
+
+    /**
+     * ONE_SHOT mode: the watches set here report back here, not to ZooKeeperService
+     */
+    @Override
+    public void process(WatchedEvent event) {
+        if (event.getType() == Event.EventType.None) {
+            return;   // Connection state, ZooKeeperService handles that
+        }
+        long start = System.nanoTime();
+        onTreeEvent(event);
+        metrics.recordEvent(event.getType(), start);
+    }
+
+    private synchronized void onTreeEvent(WatchedEvent event) {
+        String rel = relative(event.getPath());
+        if (rel == null || zooKeeper == null) {
+            return;
+        }
+        switch (event.getType()) {
+            case NodeCreated:
+                if (rel.equals("/")) {
+                    load(rel, true);
+                } else {
+                    readData(rel);   // PERSISTENT mode: its children, if any, come as events of their own
+                }
+                break;
+            case NodeDeleted:
+                drop(rel);
+                if (rel.equals("/") && watchMode == WatchMode.ONE_SHOT) {
+                    watchRoot();   // To see it come back
+                }
+                break;
+            case NodeDataChanged:
+                readData(rel);
+                break;
+            case NodeChildrenChanged:
+                readChildren(rel, false);
+                break;
+            default:
+                break;
+        }
+    }
+
+    // ========== Tree walk ==========
+
+    /**
+     * Where it all starts: is the root there? ONE_SHOT mode also leaves a watch for it to appear
+     */
+    private void watchRoot() {
+        int session = sessionGeneration;
+        readsInFlight++;
+        long start = System.nanoTime();
+        zooKeeper.exists(ROOT_PATH, oneShotWatcher(), (rc, path, ctx, stat) -> {
+            metrics.recordOperation(ZkOperation.EXISTS, start, rc);
+            synchronized (this) {
+                if (session != sessionGeneration) {
+                    return;
+                }
+                readsInFlight--;
+                if (rc == Code.OK.intValue()) {
+                    load("/", true);
+                } else if (rc == Code.NONODE.intValue()) {
+                    drop("/");
+                } else {
+                    logger.error("Error watching config tree", KeeperException.create(Code.get(rc), path));
+                }
+                checkSynced();
+            }
+        }, null);
+    }
+
+    /**
+     * Data, then children (the replies come back in that order)
+     * deep = also re-read children that are already cached (new session); otherwise only new ones are read
+     */
+    private void load(String rel, boolean deep) {
+        readData(rel);
+        readChildren(rel, deep);
+    }
+
+    private void readData(String rel) {
+        int session = sessionGeneration;
+        readsInFlight++;
+        long start = System.nanoTime();
+        zooKeeper.getData(absolute(rel), oneShotWatcher(), (rc, path, ctx, data, stat) -> {
+            metrics.recordOperation(ZkOperation.GET_DATA, start, rc);
+            onData(rel, rc, data, stat, session);
+        }, null);
+    }
+
+    private void readChildren(String rel, boolean deep) {
+        int session = sessionGeneration;
+        readsInFlight++;
+        long start = System.nanoTime();
+        zooKeeper.getChildren(absolute(rel), oneShotWatcher(), (rc, path, ctx, children) -> {
+            metrics.recordOperation(ZkOperation.GET_CHILDREN, start, rc);
+            onChildren(rel, rc, children, deep, session);
+        }, null);
+    }
+
+    private synchronized void onData(String rel, int rc, byte[] data, Stat stat, int session) {
+        if (session != sessionGeneration) {
+            return;
+        }
+        readsInFlight--;
+        if (rc == Code.OK.intValue()) {
+            ConfigNode old = nodes.get(rel);
+            if (old == null || stat.getMzxid() > old.getMzxid()) {
+                apply(rel, new ConfigNode(rel, data, stat.getVersion(), stat.getMzxid(), version + 1,
+                        old == null ? List.of() : old.getChildren()));
+                if (old == null && !rel.equals("/")) {
+                    addChild(parentOf(rel), rel.substring(rel.lastIndexOf('/') + 1));
+                }
+            }
+        } else if (rc == Code.NONODE.intValue()) {
+            drop(rel);
+        } else {
+            logger.error("Error reading config node", KeeperException.create(Code.get(rc), absolute(rel)));
+        }
+        checkSynced();
+    }
+
+    private synchronized void onChildren(String rel, int rc, List<String> children, boolean deep, int session) {
+        if (session != sessionGeneration) {
+            return;
+        }
+        readsInFlight--;
+        ConfigNode node = nodes.get(rel);
+        if (rc == Code.OK.intValue() && node != null) {
+            List<String> sorted = new ArrayList<>(children);
+            Collections.sort(sorted);
+            for (String name : sorted) {
+                String child = childOf(rel, name);
+                if (deep || !nodes.containsKey(child)) {
+                    load(child, true);
+                }
+            }
+            for (String name : node.getChildren()) {
+                if (Collections.binarySearch(sorted, name) < 0) {
+                    removeSubtree(childOf(rel, name));
+                }
+            }
+            if (!sorted.equals(node.getChildren())) {
+                apply(rel, node.withChildren(sorted, version + 1));
+            }
+        } else if (rc != Code.OK.intValue() && rc != Code.NONODE.intValue()) {
+            // NONODE: the data read just before this one already dropped it
+            logger.error("Error listing config node", KeeperException.create(Code.get(rc), absolute(rel)));
+        }
+        checkSynced();
+    }
+
+    private void addChild(String parentRel, String name) {
+        ConfigNode parent = nodes.get(parentRel);
+        if (parent != null && !parent.getChildren().contains(name)) {
+            List<String> children = new ArrayList<>(parent.getChildren());
+            children.add(name);
+            Collections.sort(children);
+            apply(parentRel, parent.withChildren(children, version + 1));
+        }
+    }
+
+    /**
+     * A node is gone: forget it, everything below it, and its entry in the parent
+     */
+    private void drop(String rel) {
+        if (!removeSubtree(rel) || rel.equals("/")) {
+            return;
+        }
+        String parentRel = parentOf(rel);
+        ConfigNode parent = nodes.get(parentRel);
+        String name = rel.substring(rel.lastIndexOf('/') + 1);
+        if (parent != null && parent.getChildren().contains(name)) {
+            List<String> children = new ArrayList<>(parent.getChildren());
+            children.remove(name);
+            apply(parentRel, parent.withChildren(children, version + 1));
+        }
+    }
+
+    private boolean removeSubtree(String rel) {
+        ConfigNode node = nodes.remove(rel);
+        if (node == null) {
+            return false;
+        }
+        for (String name : node.getChildren()) {
+            removeSubtree(childOf(rel, name));
+        }
+        version++;
+        for (BiConsumer<String, ConfigNode> listener : listeners) {
+            listener.accept(rel, null);
+        }
+        return true;
+    }
+
+    /**
+     * One change: swap the node in, then bump the version it was stamped with
+     */
+    private void apply(String rel, ConfigNode node) {
+        nodes.put(rel, node);
+        version = node.getCacheVersion();
+        for (BiConsumer<String, ConfigNode> listener : listeners) {
+            listener.accept(rel, node);
+        }
+    }
+
+    private void checkSynced() {
+        if (readsInFlight == 0 && !synced && zooKeeper != null) {
+            synced = true;
+            logger.info("Config tree synced: {} nodes, version {}", nodes.size(), version);
+        }
+    }
+
+    // ========== Paths ==========
+
+    private Watcher oneShotWatcher() {
+        return watchMode == WatchMode.ONE_SHOT ? this : null;
+    }
+
+    /**
+     * "", "/" -> "/"; "a/b/" -> "/a/b"
+     */
+    private static String normalize(String path) {
+        if (path == null || path.isEmpty() || path.equals("/")) {
+            return "/";
+        }
+        String rel = path.startsWith("/") ? path : "/" + path;
+        return rel.endsWith("/") ? rel.substring(0, rel.length() - 1) : rel;
+    }
+
+    private String absolute(String rel) {
+        return rel.equals("/") ? ROOT_PATH : ROOT_PATH + rel;
+    }
+
+    /**
+     * Path relative to the config root, null if the path is outside it
+     */
+    private String relative(String path) {
+        if (path == null) {
+            return null;
+        }
+        if (path.equals(ROOT_PATH)) {
+            return "/";
+        }
+        return path.startsWith(ROOT_PATH + "/") ? path.substring(ROOT_PATH.length()) : null;
+    }
+
+    private static String childOf(String rel, String name) {
+        return rel.equals("/") ? "/" + name : rel + "/" + name;
+    }
+
+    private static String parentOf(String rel) {
+        int slash = rel.lastIndexOf('/');
+        return slash == 0 ? "/" : rel.substring(0, slash);
+    }
+}
@@ -0,0 +1,464 @@
+package edu.sjsu.cmpe172;
+
+import org.apache.zookeeper.*;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+/**
+ * Named mutual-exclusion locks across the cluster, on ZooKeeperService's session
+ * However many threads in this JVM want a lock, it has at most one contender node in ZooKeeper:
+ * /locks/{name}/{myId}_{sequence}, EPHEMERAL_SEQUENTIAL, each contender watching only the one ahead of it.
+ * Local threads queue in memory behind that node. Once it reaches the head, the lock goes from one local
+ * holder to the next without any ZooKeeper traffic; after lock.local-handoffs turns in a row (or when nobody
+ * local is waiting) the node is deleted and the lock goes on to the next JVM in line.
+ * Waiters get the lock in FIFO order; a lost session voids every handle it backed.
+ * Grants complete the waiter's future on the releasing thread (or the ZK event thread), so callbacks
+ * attached to it must not block.
+ */
+@Service
+public class DistributedLockService implements Watcher, SessionListener {
+    private static final Logger logger = LoggerFactory.getLogger(DistributedLockService.class);
+
+    // One path segment, nothing ZK or the URL would read differently
+    private static final Pattern LOCK_NAME = Pattern.compile("[A-Za-z0-9_][A-Za-z0-9_.-]{0,127}");
+
+    // Contender names end in the 10-digit sequence number; that is the queue order, whoever created them
+    private static final Comparator<String> BY_SEQUENCE =
+            Comparator.comparing(child -> child.substring(Math.max(0, child.length() - 10)));
+
+    @Autowired
+    private ZooKeeperService zooKeeperService;
+
+    @Autowired
+    private ZooKeeperMetrics metrics;
+
+    @Value("${lock.local-handoffs:64}")
+    // Local turns in a row before the lock goes back through ZooKeeper, so other nodes get theirs
+    private int maxLocalHandoffs;
+
+    private String LOCKS_PATH;     // Parent of every lock
+    private WatchMode watchMode;
+
+    // Working state, all guarded by this
+    private ZooKeeper zooKeeper;   // The shared client, null while there is no registered session
+    private int sessionGeneration; // Bumped with every session, so callbacks from a dead one can be told apart
+    private String myId;           // My peer ID in the current session, prefix of my contender nodes
+    private final Map<String, Lock> locks = new HashMap<>();   // Only locks someone here holds or waits for
+
+    // Fires acquire timeouts; cancelled timers are dropped right away, most acquires don't need theirs
+    private final ScheduledThreadPoolExecutor timeouts = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "lock-timeouts");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    public void init() {
+        if (maxLocalHandoffs < 1) {
+            throw new IllegalArgumentException("lock.local-handoffs must be positive");
+        }
+        LOCKS_PATH = zooKeeperService.getNamespacePath() + "/locks";
+        watchMode = zooKeeperService.getWatchMode();
+        timeouts.setRemoveOnCancelPolicy(true);
+        zooKeeperService.addSessionListener(this);
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        zooKeeperService.removeSessionListener(this);
+        timeouts.shutdownNow();
+        // The session close deletes my contender nodes
+    }
+
+    // ========== Lock API ==========
+
+    /**
+     * Wait up to the timeout for the lock; close the handle to release it
+     */
+    public LockHandle acquire(String name, long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        CompletableFuture<LockHandle> waiter = acquireAsync(name, unit.toMillis(timeout));
+        try {
+            return waiter.get();
+        } catch (InterruptedException e) {
+            cancel(name, waiter);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException timeoutException) {
+                throw timeoutException;
+            }
+            throw new IllegalStateException("Could not acquire lock " + name, e.getCause());
+        }
+    }
+
+    /**
+     * Join the lock's queue; the future completes with the handle, or with TimeoutException after timeoutMillis
+     */
+    public synchronized CompletableFuture<LockHandle> acquireAsync(String name, long timeoutMillis) {
+        if (!LOCK_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid lock name: " + name);
+        }
+        Lock lock = locks.computeIfAbsent(name, Lock::new);
+        CompletableFuture<LockHandle> waiter = new CompletableFuture<>();
+        lock.waiters.add(waiter);
+        if (lock.contenderPath == null && !lock.contending && zooKeeper != null) {
+            contend(lock);   // First one here: get in line in ZooKeeper
+        }
+        // Otherwise the node is in line (or holding, with a local holder ahead of me) or there is no session yet
+        if (!waiter.isDone()) {
+            ScheduledFuture<?> timer = timeouts.schedule(
+                    () -> withdraw(name, waiter, new TimeoutException("Timed out waiting for lock " + name)),
+                    timeoutMillis, TimeUnit.MILLISECONDS);
+            waiter.whenComplete((handle, error) -> timer.cancel(false));
+        }
+        return waiter;
+    }
+
+    /**
+     * Stop waiting for a lock asked for with acquireAsync(); if it was granted already, it is released
+     */
+    public void cancel(String name, CompletableFuture<LockHandle> waiter) {
+        withdraw(name, waiter, new CancellationException("Cancelled"));
+        if (waiter.isDone() && !waiter.isCompletedExceptionally()) {
+            waiter.join().close();   // Granted just before, pass it on
+        }
+    }
+
+    /**
+     * Does a thread or request of this JVM hold the lock right now?
+     */
+    public synchronized boolean isHeldLocally(String name) {
+        Lock lock = locks.get(name);
+        return lock != null && lock.holder != null;
+    }
+
+    /**
+     * LockHandle.close(): next local waiter, or back to ZooKeeper
+     */
+    synchronized void release(LockHandle handle) {
+        handle.invalidate();
+        Lock lock = locks.get(handle.getName());
+        if (lock == null || lock.holder != handle) {
+            return;   // Already voided with its session
+        }
+        lock.holder = null;
+        if (lock.waiters.isEmpty()) {
+            releaseContender(lock);
+        } else if (lock.sequence < maxLocalHandoffs) {
+            grantNext(lock);   // Straight to the next local waiter, no ZooKeeper traffic
+        } else {
+            // Local waiters had it long enough: let the other nodes in line have it, then queue again
+            releaseContender(lock);
+            contend(lock);
+        }
+    }
+
+    /**
+     * A waiter gives up (timeout or interrupt); a no-op if it already got the lock
+     */
+    private synchronized void withdraw(String name, CompletableFuture<LockHandle> waiter, Throwable reason) {
+        if (!waiter.completeExceptionally(reason)) {
+            return;
+        }
+        Lock lock = locks.get(name);
+        if (lock != null && lock.waiters.remove(waiter) && lock.waiters.isEmpty() && lock.holder == null) {
+            releaseContender(lock);   // Nobody left here who wants it
+        }
+    }
+
+    // ========== Session hooks (ZooKeeperService lock held) ==========
+
+    @Override
+    public synchronized void onSessionStarted(ZooKeeper zooKeeper, String myId) {
+        this.zooKeeper = zooKeeper;
+        this.myId = myId;
+        sessionGeneration++;
+        for (Lock lock : locks.values()) {
+            contend(lock);   // Only locks with waiters are left after a session loss
+        }
+    }
+
+    @Override
+    public synchronized void onReconnected() {
+        for (Lock lock : locks.values()) {
+            if (lock.contenderPath != null && !lock.held) {
+                checkQueue(lock);   // A deletion ahead of me may have happened while I was away
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onSessionLost() {
+        zooKeeper = null;
+        myId = null;
+        sessionGeneration++;
+        Iterator<Lock> it = locks.values().iterator();
+        while (it.hasNext()) {
+            Lock lock = it.next();
+            if (lock.holder != null) {
+                logger.warn("Lost lock {} with the ZooKeeper session", lock.name);
+                lock.holder.invalidate();
+                lock.holder = null;
+            }
+            lock.contenderPath = null;
+            lock.contending = false;
+            lock.held = false;
+            lock.predecessorPath = null;
+            if (lock.waiters.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public void onPersistentEvent(WatchedEvent event) {
+        onLockEvent(event);
+    }
+
+    /**
+     * ONE_SHOT mode: the predecessor watches set here report back here
+     */
+    @Override
+    public void process(WatchedEvent event) {
+        if (event.getType() == Event.EventType.None) {
+            return;   // Connection state, ZooKeeperService handles that
+        }
+        long start = System.nanoTime();
+        onLockEvent(event);
+        metrics.recordEvent(event.getType(), start);
+    }
+
+    private synchronized void onLockEvent(WatchedEvent event) {
+        String path = event.getPath();
+        if (event.getType() != Event.EventType.NodeDeleted || path == null || !path.startsWith(LOCKS_PATH + "/")
+                || zooKeeper == null) {
+            return;
+        }
+        int end = path.indexOf('/', LOCKS_PATH.length() + 1);
+        Lock lock = end < 0 ? null : locks.get(path.substring(LOCKS_PATH.length() + 1, end));
+        if (lock != null && path.equals(lock.predecessorPath)) {
+            lock.predecessorPath = null;
+            checkQueue(lock);   // Only I get (or act on) this one, no herd
+        }
+    }
+
+    // ========== Contention, per lock ==========
+
+    private boolean isCurrent(Lock lock, int session) {
+        return session == sessionGeneration && locks.get(lock.name) == lock;
+    }
+
+    private void contend(Lock lock) {
+        lock.contending = true;
+        int session = sessionGeneration;
+        long start = System.nanoTime();
+        zooKeeper.create(lock.path + "/" + myId + "_", myId.getBytes(StandardCharsets.UTF_8),
+                ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL,
+                (rc, path, ctx, name, stat) -> {
+                    metrics.recordOperation(ZkOperation.CREATE, start, rc);
+                    synchronized (this) {
+                        if (isCurrent(lock, session)) {
+                            onContenderCreated(lock, rc, name, stat);
+                        } else if (session == sessionGeneration && rc == Code.OK.intValue()) {
+                            deleteQuietly(name);   // Everyone here gave up while the create was in flight
+                        }
+                    }
+                }, null);
+    }
+
+    private void onContenderCreated(Lock lock, int rc, String contenderPath, Stat stat) {
+        lock.contending = false;
+        if (rc == Code.NONODE.intValue()) {
+            // First use of the lock, or its container was reaped after the last contender left
+            createParent(LOCKS_PATH);
+            createParent(lock.path);
+            contend(lock);
+            return;
+        }
+        if (rc == Code.CONNECTIONLOSS.intValue()) {
+            // The node may exist anyway; the queue check of the retry deletes such leftovers of mine
+            contend(lock);
+            return;
+        }
+        if (rc != Code.OK.intValue()) {
+            KeeperException error = KeeperException.create(Code.get(rc), lock.path);
+            logger.error("Error joining lock queue", error);
+            locks.remove(lock.name);
+            for (CompletableFuture<LockHandle> waiter : lock.waiters) {
+                waiter.completeExceptionally(error);
+            }
+            return;
+        }
+        lock.contenderPath = contenderPath;
+        lock.token = stat.getCzxid();
+        if (lock.waiters.isEmpty()) {
+            releaseContender(lock);   // Everyone gave up meanwhile
+            return;
+        }
+        checkQueue(lock);
+    }
+
+    private void checkQueue(Lock lock) {
+        int session = sessionGeneration;
+        long start = System.nanoTime();
+        zooKeeper.getChildren(lock.path, false, (rc, path, ctx, children) -> {
+            metrics.recordOperation(ZkOperation.GET_CHILDREN, start, rc);
+            synchronized (this) {
+                if (isCurrent(lock, session)) {
+                    onQueue(lock, rc, children);
+                }
+            }
+        }, null);
+    }
+
+    private void onQueue(Lock lock, int rc, List<String> contenders) {
+        if (lock.contenderPath == null || lock.held) {
+            return;   // Released, or already through, while the read was in flight
+        }
+        if (rc != Code.OK.intValue()) {
+            logger.error("Error reading lock queue", KeeperException.create(Code.get(rc), lock.path));
+            return;
+        }
+        contenders.sort(BY_SEQUENCE);
+        String mine = lock.contenderPath.substring(lock.path.length() + 1);
+        String previous = null;
+        boolean found = false;
+        for (String contender : contenders) {
+            if (contender.equals(mine)) {
+                found = true;
+                break;
+            }
+            if (contender.startsWith(myId + "_")) {
+                deleteQuietly(lock.path + "/" + contender);   // Left over from a create that lost its reply
+            } else {
+                previous = contender;
+            }
+        }
+        if (!found) {
+            lock.contenderPath = null;   // My node is gone, take a new one
+            contend(lock);
+        } else if (previous == null) {
+            onAcquired(lock);
+        } else {
+            String predecessor = lock.path + "/" + previous;
+            lock.predecessorPath = predecessor;
+            int session = sessionGeneration;
+            long start = System.nanoTime();
+            zooKeeper.exists(predecessor, watchMode == WatchMode.ONE_SHOT ? this : null,
+                    (existsRc, path, ctx, stat) -> {
+                        metrics.recordOperation(ZkOperation.EXISTS, start, existsRc);
+                        synchronized (this) {
+                            if (isCurrent(lock, session) && predecessor.equals(lock.predecessorPath)
+                                    && existsRc == Code.NONODE.intValue()) {
+                                lock.predecessorPath = null;
+                                checkQueue(lock);   // Gone before the watch was set
+                            }
+                        }
+                    }, null);
+        }
+    }
+
+    private void onAcquired(Lock lock) {
+        lock.held = true;
+        lock.sequence = 0;
+        lock.predecessorPath = null;
+        grantNext(lock);
+    }
+
+    /**
+     * Hand the lock to the first local waiter that is still waiting
+     */
+    private void grantNext(Lock lock) {
+        CompletableFuture<LockHandle> waiter;
+        while ((waiter = lock.waiters.poll()) != null) {
+            LockHandle handle = new LockHandle(this, lock.name, zooKeeper, lock.token, ++lock.sequence);
+            lock.holder = handle;
+            if (waiter.complete(handle)) {
+                return;
+            }
+            lock.holder = null;   // It timed out just now
+        }
+        releaseContender(lock);
+    }
+
+    /**
+     * Out of the ZooKeeper queue (the next JVM in line gets the lock); forget the lock if nobody here wants it
+     */
+    private void releaseContender(Lock lock) {
+        if (lock.contenderPath != null && zooKeeper != null) {
+            deleteQuietly(lock.contenderPath);
+        }
+        lock.contenderPath = null;
+        lock.held = false;
+        lock.predecessorPath = null;
+        if (lock.waiters.isEmpty() && lock.holder == null && !lock.contending) {
+            locks.remove(lock.name);
+        }
+    }
+
+    /**
+     * Speculative create, "already exists" is the normal answer
+     * CONTAINER nodes, so locks nobody uses anymore are cleaned up by the server
+     */
+    private void createParent(String path) {
+        long start = System.nanoTime();
+        zooKeeper.create(path, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.CONTAINER,
+                (rc, p, ctx, name) -> {
+                    metrics.recordOperation(ZkOperation.CREATE, start, rc);
+                    if (rc != Code.OK.intValue() && rc != Code.NODEEXISTS.intValue()) {
+                        logger.error("Error creating lock path", KeeperException.create(Code.get(rc), p));
+                    }
+                }, null);
+    }
+
+    private void deleteQuietly(String path) {
+        long start = System.nanoTime();
+        zooKeeper.delete(path, -1, (rc, p, ctx) -> {
+            metrics.recordOperation(ZkOperation.DELETE, start, rc);
+            if (rc != Code.OK.intValue() && rc != Code.NONODE.intValue()) {
+                logger.error("Error releasing lock node", KeeperException.create(Code.get(rc), p));
+            }
+        }, null);
+    }
+
+    // Working state of one lock, guarded by the service
+    private final class Lock {
+        private final String name;
+        private final String path;          // /locks/{name}
+        private final ArrayDeque<CompletableFuture<LockHandle>> waiters = new ArrayDeque<>();   // Local queue, FIFO
+        private LockHandle holder;          // Local holder, null = nobody here holds it
+        private String contenderPath;       // My node in the ZooKeeper queue
+        private boolean contending;         // A contender create is in flight
+        private boolean held;               // My node is at the head: the lock is this JVM's
+        private String predecessorPath;     // The contender just ahead of mine
+        private long token;                 // czxid of my contender node
+        private long sequence;              // Local turns since my node reached the head
+
+        private Lock(String name) {
+            this.name = name;
+            this.path = LOCKS_PATH + "/" + name;
+        }
+    }
+}
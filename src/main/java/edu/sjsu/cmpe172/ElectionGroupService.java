@@ -0,0 +1,865 @@
+package edu.sjsu.cmpe172;
+
+import org.apache.zookeeper.*;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Many independent leader elections ("groups") on ZooKeeperService's one session
+ * Each group lives under /groups/{name}: a candidate queue in /election and the leader's node in /leader,
+ * same herd-free scheme as SEQUENTIAL mode (every candidate watches only its predecessor, and in ONE_SHOT mode
+ * only the leader, the head of the queue and non-candidates watch /leader, see watchesLeader()),
+ * so thousands of groups cost one ephemeral candidate node per group and process, and no extra sessions.
+ * The candidates further back re-read a group's leader when their queue moves, when the leader's peer node goes,
+ * and when a node announces in /groups that it handed groups over (see watchHandovers()).
+ * Everything is async and pipelined; one-shot watches come back to process() here, PERSISTENT mode events
+ * arrive through ZooKeeperService's root watch. The leader data is my peer ID, as for the main election.
+ *
+ * Spreading: a leader also watches its group's queue, and with election.groups.balance on it hands back
+ * groups beyond its fair share (groups / candidates, rounded up) so leadership spreads over the nodes.
+ * The next candidate in line takes over and the one that yielded rejoins at the tail.
+ * This assumes every candidate node runs in the same groups.
+ */
+@Service
+public class ElectionGroupService implements Watcher, SessionListener, MembershipListener {
+    private static final Logger logger = LoggerFactory.getLogger(ElectionGroupService.class);
+
+    // One path segment, nothing ZK or the URL would read differently
+    private static final Pattern GROUP_NAME = Pattern.compile("[A-Za-z0-9_][A-Za-z0-9_.-]{0,127}");
+
+    @Autowired
+    private ZooKeeperService zooKeeperService;
+
+    @Autowired
+    private ZooKeeperMetrics metrics;
+
+    @Value("${election.groups:}")
+    // Groups to run for at startup, comma separated; more can be joined at runtime
+    private String initialGroups;
+
+    @Value("${election.groups.balance:true}")
+    // Hand back groups beyond my fair share so leadership spreads over the nodes
+    private boolean balance;
+
+    @Value("${election.leader-recheck-interval:50}")
+    // Candidates behind the head don't watch a group's leader; after reading "no leader" they look again this soon (ms)
+    private long leaderRecheckInterval;
+
+    private String GROUPS_PATH;    // Parent of every group
+    private WatchMode watchMode;
+
+    // Working state, all guarded by this
+    private ZooKeeper zooKeeper;   // The shared client, null while there is no registered session
+    private int sessionGeneration; // Bumped with every session, so callbacks from a dead one can be told apart
+    private String myId;           // My peer ID in the current session
+    private int handoverVersion = -1;   // Version of GROUPS_PATH last read, -1 = not read in this session
+    private final Map<String, Group> groups = new HashMap<>();
+
+    // What readers see, one immutable snapshot per group
+    private final Map<String, GroupState> states = new ConcurrentHashMap<>();
+
+    // Delayed leader re-reads of candidates behind the head
+    private final ScheduledExecutorService recheck = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "group-leader-recheck");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    public void init() {
+        GROUPS_PATH = zooKeeperService.getNamespacePath() + "/groups";
+        watchMode = zooKeeperService.getWatchMode();
+        for (String name : initialGroups.split(",")) {
+            if (!name.isBlank()) {
+                join(name.trim(), true);
+            }
+        }
+        zooKeeperService.addSessionListener(this);
+        zooKeeperService.addMembershipListener(this);
+        logger.info("Election groups under {}: {}", GROUPS_PATH, groups.keySet());
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        zooKeeperService.removeMembershipListener(this);
+        zooKeeperService.removeSessionListener(this);
+        recheck.shutdownNow();
+        // The session close deletes my candidate and leader nodes
+    }
+
+    // ========== Group API ==========
+
+    /**
+     * Join a group (or change my mind in one I'm already in)
+     * lead = true: run for leader; false: only follow who leads it
+     */
+    public synchronized void join(String name, boolean lead) {
+        if (!GROUP_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid group name: " + name);
+        }
+        Group group = groups.get(name);
+        if (group == null) {
+            group = new Group(name, GROUPS_PATH + "/" + name);
+            group.wantsToLead = lead;
+            group.leaderStatus = lead ? LeaderStatus.WAITING : LeaderStatus.WATCHING;
+            groups.put(name, group);
+            if (myId != null) {
+                startGroup(group, true);
+            }
+            publish(group);
+        } else if (lead) {
+            startLeading(group);
+        } else {
+            stopLeading(group);
+        }
+    }
+
+    /**
+     * Leave a group altogether; if I lead it, the next candidate takes over
+     * Returns false if I wasn't in it
+     */
+    public synchronized boolean leave(String name) {
+        Group group = groups.remove(name);
+        if (group == null) {
+            return false;
+        }
+        if (zooKeeper != null && resign(group, false)) {
+            noticeHandover();
+        }
+        states.remove(name);
+        logger.info("Left group {}", name);
+        return true;
+    }
+
+    /**
+     * Current snapshot of one group, null if I'm not in it
+     */
+    public GroupState getGroupState(String name) {
+        return states.get(name);
+    }
+
+    public Map<String, GroupState> getGroupStates() {
+        return Collections.unmodifiableMap(states);
+    }
+
+    /**
+     * Is this node the leader of the group right now? (from memory)
+     */
+    public boolean isLeading(String name) {
+        GroupState state = states.get(name);
+        return state != null && state.getLeaderStatus() == LeaderStatus.LEADING;
+    }
+
+    // ========== Session hooks (ZooKeeperService lock held) ==========
+
+    @Override
+    public synchronized void onSessionStarted(ZooKeeper zooKeeper, String myId) {
+        this.zooKeeper = zooKeeper;
+        this.myId = myId;
+        sessionGeneration++;
+        if (groups.isEmpty()) {
+            return;
+        }
+        createParent(GROUPS_PATH);
+        watchHandovers();
+        for (Group group : groups.values()) {
+            startGroup(group, false);
+        }
+        logger.info("Joined {} election groups as {}", groups.size(), myId);
+    }
+
+    @Override
+    public synchronized void onReconnected() {
+        if (!groups.isEmpty()) {
+            handoverVersion = -1;   // Every leader is read again below anyway
+            watchHandovers();
+        }
+        for (Group group : groups.values()) {
+            watchLeader(group);
+            if (group.candidatePath != null) {
+                checkCandidateQueue(group);
+            }
+            if (group.leaderStatus == LeaderStatus.LEADING) {
+                watchCandidates(group);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onSessionLost() {
+        zooKeeper = null;
+        myId = null;
+        sessionGeneration++;
+        handoverVersion = -1;
+        for (Group group : groups.values()) {
+            group.reset();
+            group.leaderStatus = group.wantsToLead ? LeaderStatus.WAITING : LeaderStatus.WATCHING;
+            publish(group);
+        }
+    }
+
+    @Override
+    public void onPersistentEvent(WatchedEvent event) {
+        onGroupEvent(event);
+    }
+
+    /**
+     * A group leader's peer node is gone: candidates that don't watch that group's leader read it again
+     * (called with the ZooKeeperService lock held, like the session hooks)
+     */
+    @Override
+    public synchronized void onMembershipChange(MembershipChange change) {
+        if (zooKeeper == null || change.getLeft().isEmpty()) {
+            return;
+        }
+        for (Group group : groups.values()) {
+            if (group.leader != null && change.getLeft().contains(group.leader) && !watchesLeader(group)) {
+                watchLeader(group);
+            }
+        }
+    }
+
+    /**
+     * ONE_SHOT mode: the watches set here report back here, not to ZooKeeperService
+     */
+    @Override
+    public void process(WatchedEvent event) {
+        if (event.getType() == Event.EventType.None) {
+            return;   // Connection state, ZooKeeperService handles that
+        }
+        long start = System.nanoTime();
+        onGroupEvent(event);
+        metrics.recordEvent(event.getType(), start);
+    }
+
+    private synchronized void onGroupEvent(WatchedEvent event) {
+        String path = event.getPath();
+        if (GROUPS_PATH.equals(path)) {
+            if (zooKeeper != null) {
+                watchHandovers();
+            }
+            return;
+        }
+        if (path == null || !path.startsWith(GROUPS_PATH + "/")) {
+            return;
+        }
+        int end = path.indexOf('/', GROUPS_PATH.length() + 1);
+        Group group = groups.get(end < 0 ? path.substring(GROUPS_PATH.length() + 1)
+                                         : path.substring(GROUPS_PATH.length() + 1, end));
+        if (group == null || zooKeeper == null) {
+            return;
+        }
+        Event.EventType type = event.getType();
+        if (path.equals(group.leaderPath)) {
+            if (type == Event.EventType.NodeDeleted && watchMode == WatchMode.PERSISTENT) {
+                onLeaderData(group, Code.NONODE.intValue(), null);   // No need to read a node I know is gone
+            } else {
+                watchLeader(group);
+            }
+        } else if (path.equals(group.electionPath)) {
+            if (type == Event.EventType.NodeChildrenChanged && group.leaderStatus == LeaderStatus.LEADING) {
+                watchCandidates(group);   // Someone joined or left my queue
+            }
+        } else if (path.startsWith(group.electionPath + "/")) {
+            if (type == Event.EventType.NodeDeleted && path.equals(group.predecessorPath)) {
+                onPredecessorGone(group);
+            } else if (watchMode == WatchMode.PERSISTENT && type != Event.EventType.NodeDataChanged
+                    && group.leaderStatus == LeaderStatus.LEADING) {
+                watchCandidates(group);   // The root watch reports candidates one by one
+            }
+        }
+    }
+
+    // ========== Election, per group ==========
+
+    /**
+     * Paths, then the leader read and (as a candidate) my ticket, all in one pipelined batch
+     */
+    private void startGroup(Group group, boolean withRoot) {
+        if (withRoot) {
+            createParent(GROUPS_PATH);
+            watchHandovers();
+        }
+        createParent(group.path);
+        createParent(group.electionPath);
+        watchLeader(group);
+        if (group.wantsToLead) {
+            runForLeader(group);
+        }
+    }
+
+    /**
+     * Speculative create, "already exists" is the normal answer
+     * CONTAINER nodes, so groups nobody runs in anymore are cleaned up by the server
+     */
+    private void createParent(String path) {
+        long start = System.nanoTime();
+        zooKeeper.create(path, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.CONTAINER,
+                (rc, p, ctx, name) -> {
+                    metrics.recordOperation(ZkOperation.CREATE, start, rc);
+                    if (rc != Code.OK.intValue() && rc != Code.NODEEXISTS.intValue()) {
+                        logger.error("Error creating group path", KeeperException.create(Code.get(rc), p));
+                    }
+                }, null);
+    }
+
+    /**
+     * Read the group's leader; in ONE_SHOT mode also watch it, if watchesLeader() says so
+     */
+    private void watchLeader(Group group) {
+        int session = sessionGeneration;
+        long start = System.nanoTime();
+        if (watchMode == WatchMode.ONE_SHOT && watchesLeader(group)) {
+            armLeaderWatch(group);
+        }
+        zooKeeper.getData(group.leaderPath, false, (rc, path, ctx, data, stat) -> {
+            metrics.recordOperation(ZkOperation.GET_DATA, start, rc);
+            synchronized (this) {
+                if (isCurrent(group, session)) {
+                    onLeaderData(group, rc, data);
+                }
+            }
+        }, null);
+    }
+
+    private void armLeaderWatch(Group group) {
+        long start = System.nanoTime();
+        zooKeeper.exists(group.leaderPath, this, (rc, path, ctx, stat) -> {
+            metrics.recordOperation(ZkOperation.EXISTS, start, rc);
+            if (rc != Code.OK.intValue() && rc != Code.NONODE.intValue()) {
+                logger.error("Error watching group leader", KeeperException.create(Code.get(rc), path));
+            }
+        }, null);
+    }
+
+    /**
+     * Like ZooKeeperService.watchesLeader(): losing a group's leader wakes its queue head, not every candidate
+     * The others read the leader again when their predecessor goes, or the leader's peer node does
+     */
+    private boolean watchesLeader(Group group) {
+        return !group.wantsToLead || group.atHead || group.leaderStatus == LeaderStatus.LEADING;
+    }
+
+    /**
+     * A candidate behind the head read "no leader": the head is taking over right now, look again shortly
+     */
+    private void scheduleLeaderRecheck(Group group) {
+        if (group.leaderRecheckPending || recheck.isShutdown()) {
+            return;
+        }
+        group.leaderRecheckPending = true;
+        int session = sessionGeneration;
+        recheck.schedule(() -> recheckLeader(group, session), leaderRecheckInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void recheckLeader(Group group, int session) {
+        group.leaderRecheckPending = false;
+        if (isCurrent(group, session) && group.leader == null) {
+            watchLeader(group);   // Unless the leader turned up meanwhile
+        }
+    }
+
+    /**
+     * ONE_SHOT mode: GROUPS_PATH's data names the last node that handed groups over while alive
+     * (rebalance, stopLeading, leave), and every handover bumps its version. One watch per node covers all groups:
+     * candidates that don't watch a group's leader read again only the groups that node led,
+     * or every such group if more than one handover went by since the last read
+     */
+    private void watchHandovers() {
+        if (watchMode != WatchMode.ONE_SHOT) {
+            return;   // The root watch already reports every group's leader
+        }
+        int session = sessionGeneration;
+        long start = System.nanoTime();
+        zooKeeper.getData(GROUPS_PATH, this, (rc, path, ctx, data, stat) -> {
+            metrics.recordOperation(ZkOperation.GET_DATA, start, rc);
+            synchronized (this) {
+                if (session == sessionGeneration && zooKeeper != null) {
+                    onHandoverData(rc, data, stat);
+                }
+            }
+        }, null);
+    }
+
+    private void onHandoverData(int rc, byte[] data, Stat stat) {
+        if (rc == Code.NONODE.intValue()) {
+            // Reaped with the last group; a data watch needs the node, so wait for it to come back
+            handoverVersion = -1;
+            long start = System.nanoTime();
+            zooKeeper.exists(GROUPS_PATH, this, (existsRc, path, ctx, existsStat) -> {
+                metrics.recordOperation(ZkOperation.EXISTS, start, existsRc);
+            }, null);
+            return;
+        }
+        if (rc != Code.OK.intValue()) {
+            logger.error("Error watching group handovers", KeeperException.create(Code.get(rc), GROUPS_PATH));
+            return;
+        }
+        int last = handoverVersion;
+        handoverVersion = stat.getVersion();
+        if (last < 0 || stat.getVersion() == last) {
+            return;   // First read of this session, or read twice
+        }
+        String from = new String(data, StandardCharsets.UTF_8);
+        boolean missed = stat.getVersion() > last + 1;
+        for (Group group : groups.values()) {
+            if (group.leader != null && !watchesLeader(group) && (missed || group.leader.equals(from))) {
+                watchLeader(group);
+            }
+        }
+    }
+
+    /**
+     * Tell the candidates that don't watch the leader that I gave groups up, see watchHandovers()
+     */
+    private void noticeHandover() {
+        long start = System.nanoTime();
+        zooKeeper.setData(GROUPS_PATH, myId.getBytes(StandardCharsets.UTF_8), -1, (rc, path, ctx, stat) -> {
+            metrics.recordOperation(ZkOperation.SET_DATA, start, rc);
+            if (rc != Code.OK.intValue() && rc != Code.NONODE.intValue()) {
+                logger.error("Error announcing group handover", KeeperException.create(Code.get(rc), path));
+            }
+        }, null);
+    }
+
+    private void onLeaderData(Group group, int rc, byte[] data) {
+        if (rc == Code.OK.intValue()) {
+            group.leaderChecked = true;
+            group.leader = new String(data, StandardCharsets.UTF_8);
+            if (group.leader.equals(myId)) {
+                becameLeader(group);
+            } else {
+                group.leaderStatus = group.wantsToLead ? LeaderStatus.WAITING : LeaderStatus.WATCHING;
+                if (group.wantsToLead && group.candidatePath == null) {
+                    runForLeader(group);   // Still need a ticket for the next election
+                }
+            }
+        } else if (rc == Code.NONODE.intValue()) {
+            group.leaderChecked = true;
+            group.leader = null;
+            if (!group.wantsToLead) {
+                group.leaderStatus = LeaderStatus.WATCHING;
+            } else if (group.candidatePath == null) {
+                runForLeader(group);
+                if (watchMode == WatchMode.ONE_SHOT) {
+                    scheduleLeaderRecheck(group);   // My ticket may not be the head, and then I won't watch the leader
+                }
+            } else if (group.atHead) {
+                tryToBecomeLeader(group);
+            } else {
+                group.leaderStatus = LeaderStatus.WAITING;   // My predecessor's deletion will wake me up
+                if (watchMode == WatchMode.ONE_SHOT) {
+                    scheduleLeaderRecheck(group);   // Not watching the leader, so find out who the head's win made leader
+                }
+            }
+        } else {
+            logger.error("Error reading group leader", KeeperException.create(Code.get(rc), group.leaderPath));
+        }
+        publish(group);
+    }
+
+    private void runForLeader(Group group) {
+        if (group.candidatePath != null) {
+            checkCandidateQueue(group);
+            return;
+        }
+        if (group.joiningQueue) {
+            return;
+        }
+        group.joiningQueue = true;
+        int session = sessionGeneration;
+        long start = System.nanoTime();
+        zooKeeper.create(group.electionPath + "/candidate-", myId.getBytes(StandardCharsets.UTF_8),
+                ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL,
+                (rc, path, ctx, name) -> {
+                    metrics.recordOperation(ZkOperation.CREATE, start, rc);
+                    synchronized (this) {
+                        if (isCurrent(group, session)) {
+                            onCandidateCreated(group, rc, name);
+                        } else if (session == sessionGeneration && rc == Code.OK.intValue()) {
+                            deleteQuietly(name);   // Left the group while the create was in flight
+                        }
+                    }
+                }, null);
+    }
+
+    private void onCandidateCreated(Group group, int rc, String candidatePath) {
+        group.joiningQueue = false;
+        if (rc == Code.NONODE.intValue()) {
+            // The group's container was reaped after its last candidate left, create it again
+            createParent(group.path);
+            createParent(group.electionPath);
+            runForLeader(group);
+            return;
+        }
+        if (rc != Code.OK.intValue()) {
+            logger.error("Error joining group queue", KeeperException.create(Code.get(rc), group.electionPath));
+            return;
+        }
+        group.candidatePath = candidatePath;
+        if (!group.wantsToLead) {
+            leaveCandidateQueue(group);   // Changed my mind while the create was in flight
+            return;
+        }
+        checkCandidateQueue(group);
+    }
+
+    private void checkCandidateQueue(Group group) {
+        int session = sessionGeneration;
+        long start = System.nanoTime();
+        zooKeeper.getChildren(group.electionPath, false, (rc, path, ctx, children, stat) -> {
+            metrics.recordOperation(ZkOperation.GET_CHILDREN, start, rc);
+            synchronized (this) {
+                if (isCurrent(group, session)) {
+                    onCandidates(group, rc, children);
+                }
+            }
+        }, null);
+    }
+
+    private void onCandidates(Group group, int rc, List<String> candidates) {
+        if (rc != Code.OK.intValue()) {
+            logger.error("Error reading group queue", KeeperException.create(Code.get(rc), group.electionPath));
+            return;
+        }
+        if (group.candidatePath == null) {
+            return;   // Left the queue while the read was in flight
+        }
+        Collections.sort(candidates);
+        int index = candidates.indexOf(group.candidatePath.substring(group.electionPath.length() + 1));
+        if (index < 0) {
+            group.candidatePath = null;   // My ticket is gone, take a new one
+            group.atHead = false;
+            group.queuePositionKnown = false;
+            runForLeader(group);
+        } else if (index == 0) {
+            group.predecessorPath = null;
+            group.leaderStale = false;   // The head finds out by taking over or by its leader watch
+            group.atHead = true;
+            group.queuePositionKnown = true;
+            group.candidates = candidates.size();
+            if (group.leaderStatus != LeaderStatus.LEADING) {
+                tryToBecomeLeader(group);   // Re-checks after a reconnect find me leading already
+            }
+        } else {
+            String previous = group.electionPath + "/" + candidates.get(index - 1);
+            group.predecessorPath = previous;
+            group.atHead = false;
+            group.queuePositionKnown = false;
+            if (group.leaderStale) {
+                group.leaderStale = false;
+                watchLeader(group);   // The queue ahead of me moved, maybe the leader with it; I don't watch it
+            }
+            int session = sessionGeneration;
+            long start = System.nanoTime();
+            zooKeeper.exists(previous, watchMode == WatchMode.ONE_SHOT ? this : null,
+                    (existsRc, path, ctx, stat) -> {
+                        metrics.recordOperation(ZkOperation.EXISTS, start, existsRc);
+                        synchronized (this) {
+                            if (isCurrent(group, session)) {
+                                onPredecessorChecked(group, existsRc, previous);
+                            }
+                        }
+                    }, null);
+        }
+        publish(group);
+    }
+
+    private void onPredecessorChecked(Group group, int rc, String previous) {
+        if (!previous.equals(group.predecessorPath)) {
+            return;   // Queue was re-checked since
+        }
+        if (rc == Code.OK.intValue()) {
+            group.queuePositionKnown = true;
+            if (group.leaderStatus != LeaderStatus.LEADING) {
+                group.leaderStatus = LeaderStatus.WAITING;
+            }
+            publish(group);
+        } else if (rc == Code.NONODE.intValue()) {
+            onPredecessorGone(group);
+        } else {
+            logger.error("Error watching group predecessor", KeeperException.create(Code.get(rc), previous));
+        }
+    }
+
+    private void onPredecessorGone(Group group) {
+        group.predecessorPath = null;
+        group.queuePositionKnown = false;
+        group.leaderStale = watchMode == WatchMode.ONE_SHOT;   // Re-read once the queue check says where I am
+        if (group.wantsToLead) {
+            runForLeader(group);
+        }
+    }
+
+    private void tryToBecomeLeader(Group group) {
+        int session = sessionGeneration;
+        long start = System.nanoTime();
+        zooKeeper.create(group.leaderPath, myId.getBytes(StandardCharsets.UTF_8),
+                ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL,
+                (rc, path, ctx, name) -> {
+                    metrics.recordOperation(ZkOperation.CREATE, start, rc);
+                    synchronized (this) {
+                        if (isCurrent(group, session)) {
+                            onLeaderCreated(group, rc);
+                        }
+                    }
+                }, null);
+    }
+
+    private void onLeaderCreated(Group group, int rc) {
+        if (rc == Code.OK.intValue()) {
+            group.leaderChecked = true;
+            group.leader = myId;
+            if (watchMode == WatchMode.ONE_SHOT) {
+                armLeaderWatch(group);   // A candidate that just became head may not have had one yet
+            }
+            becameLeader(group);
+        } else if (rc == Code.NODEEXISTS.intValue()) {
+            // The old leader's node is still there (it is yielding, or its session hasn't ended yet)
+            group.leaderStatus = LeaderStatus.WAITING;
+            watchLeader(group);
+        } else {
+            logger.error("Error taking group leadership", KeeperException.create(Code.get(rc), group.leaderPath));
+            group.leaderStatus = LeaderStatus.WAITING;
+        }
+        publish(group);
+    }
+
+    private void becameLeader(Group group) {
+        if (group.leaderStatus != LeaderStatus.LEADING) {
+            group.leaderStatus = LeaderStatus.LEADING;
+            logger.info("Leading group {}", group.name);
+            watchCandidates(group);
+        }
+    }
+
+    private void startLeading(Group group) {
+        group.wantsToLead = true;
+        if (zooKeeper != null) {
+            runForLeader(group);
+        }
+        publish(group);
+    }
+
+    private void stopLeading(Group group) {
+        group.wantsToLead = false;
+        if (zooKeeper != null) {
+            if (resign(group, true)) {
+                noticeHandover();
+            }
+        } else {
+            group.leaderStatus = LeaderStatus.WATCHING;
+        }
+        publish(group);
+    }
+
+    /**
+     * Leader only: follow the queue behind me, to know how many candidates could take the group over
+     */
+    private void watchCandidates(Group group) {
+        int session = sessionGeneration;
+        long start = System.nanoTime();
+        zooKeeper.getChildren(group.electionPath, watchMode == WatchMode.ONE_SHOT ? this : null,
+                (rc, path, ctx, children, stat) -> {
+                    metrics.recordOperation(ZkOperation.GET_CHILDREN, start, rc);
+                    synchronized (this) {
+                        if (isCurrent(group, session) && rc == Code.OK.intValue()) {
+                            group.candidates = children.size();
+                            rebalance();
+                        }
+                    }
+                }, null);
+    }
+
+    private void leaveCandidateQueue(Group group) {
+        if (group.candidatePath != null) {
+            deleteQuietly(group.candidatePath);
+            group.clearQueuePosition();
+        }
+    }
+
+    private void deleteQuietly(String path) {
+        long start = System.nanoTime();
+        zooKeeper.delete(path, -1, (rc, p, ctx) -> {
+            metrics.recordOperation(ZkOperation.DELETE, start, rc);
+            if (rc != Code.OK.intValue() && rc != Code.NONODE.intValue()) {
+                logger.error("Error deleting group node", KeeperException.create(Code.get(rc), p));
+            }
+        }, null);
+    }
+
+    /**
+     * Give up my ticket and, if I lead, the leader node with it in one multi(),
+     * so my successor never sees my ticket gone but my leader node still there
+     * follow = true: take a new ticket at the tail (if I still want to lead) and keep following the group;
+     * false: just leave
+     * Returns whether I was leading; the caller then calls noticeHandover() (once for a batch)
+     */
+    private boolean resign(Group group, boolean follow) {
+        boolean wasLeading = group.leaderStatus == LeaderStatus.LEADING;
+        String candidatePath = group.candidatePath;
+        if (wasLeading) {
+            List<Op> ops = new ArrayList<>();
+            ops.add(Op.delete(group.leaderPath, -1));
+            if (candidatePath != null) {
+                ops.add(Op.delete(candidatePath, -1));
+            }
+            int session = sessionGeneration;
+            long start = System.nanoTime();
+            zooKeeper.multi(ops, (rc, path, ctx, results) -> {
+                metrics.recordOperation(ZkOperation.MULTI, start, rc);
+                if (rc == Code.OK.intValue()) {
+                    logger.info("Handed over group {}", group.name);
+                } else if (rc == Code.NONODE.intValue() && candidatePath != null) {
+                    // The leader node was already gone, which failed the whole multi; the ticket must still go
+                    synchronized (this) {
+                        if (session == sessionGeneration) {
+                            deleteQuietly(candidatePath);
+                        }
+                    }
+                } else if (rc != Code.NONODE.intValue()) {
+                    logger.error("Error resigning from group", KeeperException.create(Code.get(rc), group.path));
+                }
+            }, null);
+            group.leader = null;
+        } else if (candidatePath != null) {
+            deleteQuietly(candidatePath);
+        }
+        group.clearQueuePosition();
+        group.leaderStatus = group.wantsToLead ? LeaderStatus.WAITING : LeaderStatus.WATCHING;
+        if (follow) {
+            // Requests are answered in order: the new ticket lands behind everyone, the read sees the new leader
+            if (group.wantsToLead) {
+                runForLeader(group);
+            }
+            watchLeader(group);
+        }
+        return wasLeading;
+    }
+
+    /**
+     * Hand back groups I lead beyond my fair share
+     * Fair share = groups I run in / most candidates seen in one of my queues, rounded up
+     * Only groups with someone else in the queue are handed back
+     */
+    private void rebalance() {
+        if (!balance) {
+            return;
+        }
+        int running = 0;
+        int leading = 0;
+        int candidates = 1;
+        for (Group group : groups.values()) {
+            if (group.wantsToLead) {
+                running++;
+            }
+            if (group.leaderStatus == LeaderStatus.LEADING) {
+                leading++;
+                candidates = Math.max(candidates, group.candidates);
+            }
+        }
+        int fairShare = (running + candidates - 1) / candidates;
+        boolean handedOver = false;
+        for (Group group : groups.values()) {
+            if (leading <= fairShare) {
+                break;
+            }
+            if (group.leaderStatus == LeaderStatus.LEADING && group.candidates > 1) {
+                logger.info("Leading {} groups, fair share is {}: handing {} over", leading, fairShare, group.name);
+                resign(group, true);
+                publish(group);
+                leading--;
+                handedOver = true;
+            }
+        }
+        if (handedOver) {
+            noticeHandover();
+        }
+    }
+
+    private boolean isCurrent(Group group, int session) {
+        // Same session, and the group wasn't left (and maybe joined again) in between
+        return session == sessionGeneration && groups.get(group.name) == group;
+    }
+
+    /**
+     * Build and publish a new snapshot of the group if anything visible changed
+     */
+    private void publish(Group group) {
+        if (groups.get(group.name) != group) {
+            return;   // Left in the meantime
+        }
+        boolean ready = myId != null && group.leaderChecked && (!group.wantsToLead || group.queuePositionKnown);
+        GroupState previous = states.get(group.name);
+        if (previous != null && previous.sameAs(ready, group.wantsToLead, group.leaderStatus, group.leader)) {
+            return;
+        }
+        states.put(group.name, new GroupState(group.name, previous == null ? 0 : previous.getVersion() + 1,
+                ready, group.wantsToLead, group.leaderStatus, group.leader));
+    }
+
+    /**
+     * Working state of one group, like the election fields of ZooKeeperService
+     */
+    private static final class Group {
+        private final String name;
+        private final String path;          // /groups/{name}
+        private final String leaderPath;    // /groups/{name}/leader, holds the leader's peer ID
+        private final String electionPath;  // /groups/{name}/election, the candidate queue
+        private boolean wantsToLead;
+        private LeaderStatus leaderStatus;
+        private String leader;
+        private boolean leaderChecked;
+        private String candidatePath;
+        private String predecessorPath;
+        private boolean atHead;
+        private boolean queuePositionKnown;
+        private boolean joiningQueue;
+        private boolean leaderStale;        // Predecessor gone: read the leader once the queue is checked
+        private boolean leaderRecheckPending;
+        private int candidates;             // Queue length last seen while at the head
+
+        private Group(String name, String path) {
+            this.name = name;
+            this.path = path;
+            this.leaderPath = path + "/leader";
+            this.electionPath = path + "/election";
+        }
+
+        private void clearQueuePosition() {
+            candidatePath = null;
+            predecessorPath = null;
+            atHead = false;
+            queuePositionKnown = false;
+        }
+
+        private void reset() {
+            clearQueuePosition();
+            joiningQueue = false;
+            leaderStale = false;
+            leaderRecheckPending = false;
+            leader = null;
+            leaderChecked = false;
+            candidates = 0;
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package edu.sjsu.cmpe172;
+
+public enum ElectionMode {      // reference: https://zookeeper.apache.org/doc/r3.6.0/recipes.html#sc_leaderElection
+    RACE,       // Every waiting node watches /leader and races to create it when it disappears
+    SEQUENTIAL  // Each candidate only watches the candidate just ahead of it (no herd effect)
+}
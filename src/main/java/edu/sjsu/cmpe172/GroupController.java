@@ -0,0 +1,65 @@
+package edu.sjsu.cmpe172;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Election groups: /leader/groups/{group}
+ * Under their own prefix, so no group name can clash with /leader/ready, /leader/locks and the rest
+ */
+@RestController
+@RequestMapping("/leader/groups")
+public class GroupController {
+
+    @Autowired
+    private ElectionGroupService electionGroupService;
+
+    @Autowired
+    private ZooKeeperService zooKeeperService;
+
+    // GET /leader/groups/{group} - Status of one group this node is in (404 otherwise), served from memory
+    // Test with curl: curl http://localhost:8082/leader/groups/orders-7
+    @GetMapping("/{group}")
+    public ResponseEntity<LeaderResponse> getGroupStatus(@PathVariable String group) {
+        GroupState state = electionGroupService.getGroupState(group);
+        if (state == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(state.toResponse(zooKeeperService.getClusterState(),
+                zooKeeperService.getMyDescription()));
+    }
+
+    // POST /leader/groups/{group}/lead - Join the group (if needed) and run for its leader
+    // Test with curl: curl -X POST http://localhost:8082/leader/groups/orders-7/lead
+    @PostMapping("/{group}/lead")
+    public ResponseEntity<String> lead(@PathVariable String group) {
+        try {
+            electionGroupService.join(group, true);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        return ResponseEntity.ok("Now trying to lead " + group);
+    }
+
+    // POST /leader/groups/{group}/watch - Join the group (if needed) but only follow it; hands it over if I lead it
+    @PostMapping("/{group}/watch")
+    public ResponseEntity<String> watch(@PathVariable String group) {
+        try {
+            electionGroupService.join(group, false);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        return ResponseEntity.ok("Now watching " + group);
+    }
+
+    // DELETE /leader/groups/{group} - Leave the group altogether
+    @DeleteMapping("/{group}")
+    public ResponseEntity<String> leave(@PathVariable String group) {
+        if (!electionGroupService.leave(group)) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Not in group " + group);
+        }
+        return ResponseEntity.ok("Left " + group);
+    }
+}
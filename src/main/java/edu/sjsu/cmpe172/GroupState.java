@@ -0,0 +1,70 @@
+package edu.sjsu.cmpe172;
+
+import java.util.Objects;
+
+/**
+ * Immutable snapshot of one election group, published by ElectionGroupService like ClusterState
+ * Connection status, my ID and the peer list are the shared session's, so they come from ClusterState
+ */
+public final class GroupState {
+    private final String group;               // Group name
+    private final long version;               // Bumped on every change of this group, starts at 0
+    private final boolean ready;              // Leader looked up and (as a candidate) my queue position known
+    private final boolean candidate;          // Am I running in this group?
+    private final LeaderStatus leaderStatus;  // my status in this group
+    private final String leader;              // Peer ID of the group's leader
+
+    public GroupState(String group, long version, boolean ready, boolean candidate,
+                      LeaderStatus leaderStatus, String leader) {
+        this.group = group;
+        this.version = version;
+        this.ready = ready;
+        this.candidate = candidate;
+        this.leaderStatus = leaderStatus;
+        this.leader = leader;
+    }
+
+    /**
+     * True if building a new snapshot from these values would change nothing
+     */
+    boolean sameAs(boolean ready, boolean candidate, LeaderStatus leaderStatus, String leader) {
+        return this.ready == ready
+                && this.candidate == candidate
+                && this.leaderStatus == leaderStatus
+                && Objects.equals(this.leader, leader);
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public boolean isCandidate() {
+        return candidate;
+    }
+
+    public LeaderStatus getLeaderStatus() {
+        return leaderStatus;
+    }
+
+    public String getLeader() {
+        return leader;
+    }
+
+    /**
+     * Body for GET /leader/groups/{group}: the usual fields, with this group's status, leader and version
+     */
+    public LeaderResponse toResponse(ClusterState cluster, String myDescription) {
+        LeaderResponse response = new LeaderResponse(leaderStatus.name(), cluster.getZkStatus().name(), leader,
+                cluster.getMyId(), myDescription, cluster.getPeers(), version, ready && cluster.isReady());
+        response.setGroup(group);
+        return response;
+    }
+}
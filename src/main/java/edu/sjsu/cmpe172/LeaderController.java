@@ -1,33 +1,224 @@
 package edu.sjsu.cmpe172;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 @RestController                                     // reference:https://www.baeldung.com/spring-boot-customize-jackson-objectmapper
 @RequestMapping("/leader")                          // reference: https://docs.spring.io/spring-framework/reference/web/webmvc/mvc-controller/ann-requestmapping.html
 public class LeaderController {
+    private static final Logger logger = LoggerFactory.getLogger(LeaderController.class);
+
     // GET /leader - Get the current cluster status
     @Autowired                                        // reference:https://medium.com/devdomain/spring-boots-autowired-vs-constructor-injection-a-detailed-guide-1b19970d828e
     private ZooKeeperService zooKeeperService;
 
+    @Autowired
+    private ObjectMapper objectMapper;   // Spring Boot's configured Jackson mapper
+
+    @Autowired
+    private LeaderEventBroadcaster leaderEventBroadcaster;
+
+    // Versions restart at 0 with the process, so the ETag also carries a per-process random part
+    private final String etagPrefix = "\"" + Long.toHexString(ThreadLocalRandom.current().nextLong()) + "-";
+
+    // JSON bytes of the latest snapshot; rebuilt only when the state version moves
+    private volatile SerializedState serialized;
+    private volatile SerializedState serializedDetails;   // Same for GET /leader?details=true
+
+    @Value("${leader.longpoll.timeout:30000}")
+    // How long GET /leader?sinceVersion=N may be held before answering 304 (ms)
+    private long longPollTimeout;
+
+    // Parked long-poll requests, completed by the state listener
+    private final Set<LongPoll> longPolls = ConcurrentHashMap.newKeySet();
+    private final Consumer<ClusterState> stateListener = this::completeLongPolls;
+
+    @PostConstruct
+    public void init() {
+        zooKeeperService.addStateListener(stateListener);
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        zooKeeperService.removeStateListener(stateListener);
+    }
+
     @GetMapping                                                    // reference: https://spring.io/guides/tutorials/rest
     // Handling GET requests: GET http://localhost:8082/leader
-    public ResponseEntity<LeaderResponse> getLeaderStatus() {
+    // details=true adds description, host/port and registration time of every peer (from memory, no ZK reads)
+    public ResponseEntity<byte[]> getLeaderStatus(WebRequest request,
+                                                  @RequestParam(defaultValue = "false") boolean details)
+            throws JsonProcessingException {
         // This method returns the current state of the cluster
 
-        // Create a response object and package various information
-        LeaderResponse response = new LeaderResponse(
-            // Convert the enumeration to a string
-                zooKeeperService.getLeaderStatus().name(),  // my status
-                zooKeeperService.getZkStatus().name(),      // connection status
-                zooKeeperService.getCurrentLeader(),        // current leader
-                zooKeeperService.getMyId(),                 // my ID
-                zooKeeperService.getMyDescription(),        // my description
-                zooKeeperService.getPeers()                 // all nodes
-        );
-        // The response returns HTTP 200 OK, and the body is a JSON response.
-        return ResponseEntity.ok(response);
+        // One atomic read gives a consistent snapshot
+        SerializedState current = serialize(zooKeeperService.getClusterState(), details);
+
+        // If-None-Match matches -> Spring answers 304 with an empty body (never while stale: no ETag then)
+        if (current.etag != null && request.checkNotModified(current.etag)) {            // reference: https://docs.spring.io/spring-framework/reference/web/webmvc/mvc-caching.html#mvc-caching-etag-lastmodified
+            return null;
+        }
+        // The response returns HTTP 200 OK, and the body is the cached JSON.
+        return ok(current);
+    }
+
+    // GET /leader?sinceVersion=N - long poll
+    // Answers right away if the state version is no longer N, otherwise holds the request until it changes
+    // Times out with 304 Not Modified, the client just asks again with the same N
+    // Test with curl: curl "http://localhost:8082/leader?sinceVersion=3"
+    @GetMapping(params = "sinceVersion")                       // reference: https://docs.spring.io/spring-framework/reference/web/webmvc/mvc-ann-async.html#mvc-ann-async-deferredresult
+    public DeferredResult<ResponseEntity<byte[]>> waitForChange(@RequestParam long sinceVersion,
+                                                                @RequestParam(defaultValue = "false") boolean details)
+            throws JsonProcessingException {
+        DeferredResult<ResponseEntity<byte[]>> result = new DeferredResult<>(longPollTimeout);
+        // "Changed" means different, not bigger: versions start over when a node restarts
+        ClusterState state = zooKeeperService.getClusterState();
+        if (state.getVersion() != sinceVersion) {
+            result.setResult(ok(serialize(state, details)));
+            return result;
+        }
+
+        LongPoll poll = new LongPoll(sinceVersion, details, result);
+        result.onTimeout(() -> result.setResult(notModified(zooKeeperService.getClusterState(), details)));
+        result.onCompletion(() -> longPolls.remove(poll));
+        longPolls.add(poll);
+
+        // A change may have been published between the first check and add()
+        completeLongPolls(zooKeeperService.getClusterState());
+        return result;
+    }
+
+    // GET /leader/ready - 200 once this node has joined the cluster, 503 before that
+    // Meant for load balancer / orchestrator readiness checks
+    @GetMapping("/ready")
+    public ResponseEntity<String> ready() {
+        if (zooKeeperService.isReady()) {
+            return ResponseEntity.ok("READY");
+        }
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("NOT_READY");
+    }
+
+    // GET /leader/lease - Am I the leader right now, and with which fencing token? (from memory)
+    // fencingToken is -1 when the lease isn't valid
+    // Test with curl: curl http://localhost:8082/leader/lease
+    @GetMapping("/lease")
+    public ResponseEntity<Map<String, Object>> lease() {
+        LeadershipLease lease = zooKeeperService.getLeadershipLease();
+        long token = lease.validToken();
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("valid", token != LeadershipLease.NO_TOKEN);
+        body.put("fencingToken", token);
+        body.put("remainingMs", TimeUnit.NANOSECONDS.toMillis(lease.getRemainingNanos()));
+        return ResponseEntity.ok(body);
+    }
+
+    // GET /leader/stream - Server-Sent Events, one event per leader/peer change
+    // Test with curl: curl -N http://localhost:8082/leader/stream
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)    // reference: https://docs.spring.io/spring-framework/reference/web/webmvc/mvc-ann-async.html#mvc-ann-async-sse
+    public SseEmitter stream() {
+        // The first event is the current state, then every change after it
+        return leaderEventBroadcaster.subscribe();
+    }
+
+    /**
+     * Wake every parked long poll that hasn't seen this version
+     * Runs on the publishing thread; setResult() only dispatches, it doesn't write the response here
+     */
+    private void completeLongPolls(ClusterState state) {
+        if (longPolls.isEmpty()) {
+            return;
+        }
+        try {
+            ResponseEntity<byte[]> plain = null;     // Each variant is built only if someone waits for it
+            ResponseEntity<byte[]> detailed = null;
+            for (LongPoll poll : longPolls) {
+                if (poll.sinceVersion != state.getVersion() && longPolls.remove(poll)) {
+                    if (poll.details) {
+                        detailed = detailed != null ? detailed : ok(serialize(state, true));
+                        poll.result.setResult(detailed);
+                    } else {
+                        plain = plain != null ? plain : ok(serialize(state, false));
+                        poll.result.setResult(plain);
+                    }
+                }
+            }
+        } catch (JsonProcessingException e) {
+            logger.error("Error serializing leader state", e);
+        }
+    }
+
+    private ResponseEntity<byte[]> ok(SerializedState current) {
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok();
+        if (current.etag != null) {
+            builder.eTag(current.etag);
+        }
+        return builder
+                .cacheControl(CacheControl.noCache())   // Caches may keep it, but must revalidate
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(current.body);
+    }
+
+    private ResponseEntity<byte[]> notModified(ClusterState state, boolean details) {
+        ResponseEntity.BodyBuilder builder = ResponseEntity.status(HttpStatus.NOT_MODIFIED);
+        if (!state.isStale()) {
+            builder.eTag(etagFor(state.getVersion(), details));
+        }
+        return builder.build();
+    }
+
+    private String etagFor(long version, boolean details) {
+        // The two bodies differ, so they can't share an ETag
+        return etagPrefix + version + (details ? "-details" : "") + "\"";
+    }
+
+    /**
+     * Serialize a snapshot at most once per version
+     * Steady-state polling just writes the same byte array again
+     */
+    private SerializedState serialize(ClusterState state, boolean details) throws JsonProcessingException {
+        SerializedState cached = details ? serializedDetails : serialized;
+        if (cached != null && cached.version == state.getVersion() && !state.isStale()) {
+            return cached;
+        }
+        // Two threads may both build it for a new version, either result is fine
+        // A stale body carries its age, so it is built per request and gets no ETag: it isn't the same bytes twice
+        cached = new SerializedState(state.getVersion(),
+                objectMapper.writeValueAsBytes(details ? state.getDetailedResponse() : state.getResponse()),
+                state.isStale() ? null : etagFor(state.getVersion(), details));
+        if (state.isStale()) {
+            return cached;
+        }
+        if (details) {
+            serializedDetails = cached;
+        } else {
+            serialized = cached;
+        }
+        return cached;
     }
     
     // Handle a POST request: POST http://localhost:8082/leader/watch
@@ -53,4 +244,49 @@ public class LeaderController {
         // If there is a leader, enter a waiting state
         return ResponseEntity.ok("Now trying to become leader");
     }
+
+    // Handle a POST request: POST http://localhost:8082/leader/transfer?to=peer-0000000007
+    // Hands my leadership straight to that peer (or, without "to", to the best candidate), no leaderless gap
+    // Answers once the new leader is in place: 409 if I'm not the leader, 400 for an unknown peer,
+    // 504 if the peer didn't take over in time (I stay leader then)
+    // Test with curl: curl -X POST http://localhost:8082/leader/transfer
+    @PostMapping("/transfer")
+    public CompletableFuture<ResponseEntity<String>> transfer(@RequestParam(required = false) String to) {
+        return zooKeeperService.transferLeadership(to).handle((newLeader, error) -> {
+            if (error == null) {
+                return ResponseEntity.ok("Leadership transferred to " + newLeader);
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            HttpStatus status = cause instanceof IllegalArgumentException ? HttpStatus.BAD_REQUEST
+                    : cause instanceof TimeoutException ? HttpStatus.GATEWAY_TIMEOUT
+                    : HttpStatus.CONFLICT;
+            return ResponseEntity.status(status).body(cause.getMessage());
+        });
+    }
+
+    // One parked GET /leader?sinceVersion=N request
+    private static final class LongPoll {
+        private final long sinceVersion;
+        private final boolean details;
+        private final DeferredResult<ResponseEntity<byte[]>> result;
+
+        private LongPoll(long sinceVersion, boolean details, DeferredResult<ResponseEntity<byte[]>> result) {
+            this.sinceVersion = sinceVersion;
+            this.details = details;
+            this.result = result;
+        }
+    }
+
+    // One version's JSON body and its strong ETag (null for a stale body)
+    private static final class SerializedState {
+        private final long version;
+        private final byte[] body;
+        private final String etag;
+
+        private SerializedState(long version, byte[] body, String etag) {
+            this.version = version;
+            this.body = body;
+            this.etag = etag;
+        }
+    }
 }
@@ -0,0 +1,131 @@
+package edu.sjsu.cmpe172;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Pushes every new ClusterState to the GET /leader/stream subscribers
+ * Writes happen on virtual threads, so thousands of open streams don't hold platform threads,
+ * and a slow client only ever gets the newest state (older ones it hasn't received yet are skipped)
+ */
+@Component
+public class LeaderEventBroadcaster {
+    private static final Logger logger = LoggerFactory.getLogger(LeaderEventBroadcaster.class);
+
+    @Autowired
+    private ZooKeeperService zooKeeperService;
+
+    @Value("${leader.stream.timeout:1800000}")
+    // How long one SSE connection stays open (ms); EventSource clients reconnect on their own
+    private long streamTimeout;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ExecutorService sender = Executors.newVirtualThreadPerTaskExecutor();    // reference: https://docs.oracle.com/en/java/javase/21/core/virtual-threads.html
+    private final Consumer<ClusterState> listener = this::broadcast;   // Kept so the same instance can be removed
+
+    @PostConstruct
+    public void init() {
+        zooKeeperService.addStateListener(listener);
+    }
+
+    /**
+     * Open a new stream, starting with the current state
+     */
+    public SseEmitter subscribe() {
+        SseEmitter emitter = new SseEmitter(streamTimeout);
+        Subscriber subscriber = new Subscriber(emitter);
+        subscribers.add(subscriber);
+        // Drop it however the connection ends
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(e -> subscribers.remove(subscriber));
+
+        subscriber.offer(zooKeeperService.getClusterState());
+        return emitter;
+    }
+
+    // Runs on the publishing thread, only queues work
+    private void broadcast(ClusterState state) {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(state);
+        }
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        zooKeeperService.removeStateListener(listener);
+        for (Subscriber subscriber : subscribers) {
+            subscriber.emitter.complete();
+        }
+        sender.shutdownNow();
+    }
+
+    /**
+     * One open stream
+     * Holds at most one pending state and at most one sender task at a time
+     */
+    private final class Subscriber {
+        private final SseEmitter emitter;
+        private final AtomicReference<ClusterState> pending = new AtomicReference<>();
+        private final AtomicBoolean sending = new AtomicBoolean();
+        private long lastSentVersion = -1;   // Only touched by the running sender task
+
+        private Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        private void offer(ClusterState state) {
+            pending.set(state);   // Newer state replaces one that hasn't gone out yet
+            if (sending.compareAndSet(false, true)) {
+                sender.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                ClusterState state = pending.getAndSet(null);
+                if (state == null) {
+                    sending.set(false);
+                    // An offer may have slipped in after getAndSet but before the flag was cleared
+                    if (pending.get() == null || !sending.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                if (state.getVersion() <= lastSentVersion) {
+                    continue;   // Already sent (subscribe and broadcast can race for the first one)
+                }
+                try {
+                    emitter.send(SseEmitter.event()
+                            .id(Long.toString(state.getVersion()))
+                            .name("leader")
+                            .data(state.getResponse(), MediaType.APPLICATION_JSON));
+                    lastSentVersion = state.getVersion();
+                } catch (IOException | IllegalStateException e) {
+                    // Client went away (or the emitter already completed)
+                    logger.debug("Dropping leader stream subscriber: {}", e.getMessage());
+                    subscribers.remove(this);
+                    emitter.completeWithError(e);
+                    sending.set(false);
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package edu.sjsu.cmpe172;
+
+/**
+ * A singleton job that only the leader runs, see LeaderTaskScheduler
+ * Spring beans implementing this are registered automatically, others go through LeaderTaskScheduler.register()
+ */
+public interface LeaderJob {
+    /**
+     * Unique name, also the name of its checkpoint node (letters, digits, '_', '.', '-')
+     */
+    String getName();
+
+    /**
+     * Delay between the end of one run and the start of the next (ms); 0 = one run per leadership term
+     */
+    default long getPeriodMillis() {
+        return 0;
+    }
+
+    /**
+     * One run; stop soon once interrupted or context.isCancelled(), save progress with context.checkpoint()
+     */
+    void run(LeaderJobContext context) throws Exception;
+}
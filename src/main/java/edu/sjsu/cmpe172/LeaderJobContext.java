@@ -0,0 +1,77 @@
+package edu.sjsu.cmpe172;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * What a LeaderJob gets for one leadership term: its saved progress, a way to save more,
+ * and whether it should still be running
+ * A new leader starts from the last checkpoint any leader saved, not from scratch.
+ */
+public final class LeaderJobContext {
+    private final LeaderTaskScheduler scheduler;
+    private final String name;
+    final String path;                // Checkpoint node
+    final LeadershipLease lease;
+    volatile long token = LeadershipLease.NO_TOKEN;   // Fencing token the checkpoint was claimed with, set before the first run
+    private volatile boolean cancelled;
+
+    // Last checkpoint and the version of its node (-1 = no node yet), guarded by this
+    private byte[] checkpoint;
+    int checkpointVersion = -1;
+    volatile boolean loaded;          // Read from ZooKeeper in this term
+
+    LeaderJobContext(LeaderTaskScheduler scheduler, String name, String path, LeadershipLease lease) {
+        this.scheduler = scheduler;
+        this.name = name;
+        this.path = path;
+        this.lease = lease;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Fencing token of this leadership term (czxid of /leader), for writes to systems outside ZooKeeper
+     */
+    public long getToken() {
+        return token;
+    }
+
+    /**
+     * True once the term is over (leadership or the connection lost, or a newer leader claimed the checkpoint);
+     * the thread is interrupted at the same moment
+     * The lease itself is only checked by checkpoint(), so a short lapse doesn't stop the job
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * The last saved progress, null if none was ever saved
+     */
+    public synchronized byte[] getCheckpoint() {
+        return checkpoint == null ? null : checkpoint.clone();
+    }
+
+    /**
+     * Save progress in ZooKeeper and wait for it to be stored
+     * Throws CancellationException if this node is no longer the leader, or a newer leader claimed the checkpoint
+     */
+    public void checkpoint(byte[] progress) throws InterruptedException {
+        if (isCancelled()) {
+            throw new CancellationException("No longer leading, checkpoint of " + name + " not saved");
+        }
+        scheduler.saveCheckpoint(this, progress.clone());
+    }
+
+    synchronized void loaded(byte[] data, int version) {
+        checkpoint = data;
+        checkpointVersion = version;
+        loaded = true;
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+}
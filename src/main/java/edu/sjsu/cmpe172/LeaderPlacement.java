@@ -0,0 +1,162 @@
+package edu.sjsu.cmpe172;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps leadership on the node best able to carry it
+ * Every peer.load.refresh-interval it measures this node's CPU, takes the queue depth the application reports,
+ * and hands both to ZooKeeperService, which republishes them in my peer node when they moved noticeably.
+ * Whoever wins the /leader race (or heads the queue) keeps failover fast; the leader then checks the published
+ * metadata and hands over with the zero-gap transfer when
+ * - a live candidate has a higher election.priority, or
+ * - it stayed above election.load.handoff-threshold CPU for election.load.handoff-after, and a candidate
+ *   of the same priority is below the threshold and clearly less busy.
+ * After each attempt it waits election.load.handoff-after before trying again, so leadership doesn't bounce.
+ */
+@Component
+public class LeaderPlacement {
+    private static final Logger logger = LoggerFactory.getLogger(LeaderPlacement.class);
+
+    private static final double CLEARLY_LESS_BUSY = 0.2;   // CPU gap a load handoff needs
+
+    @Autowired
+    private ZooKeeperService zooKeeperService;
+
+    @Value("${peer.load.refresh-interval:5000}")
+    // How often load is measured and, when it moved, republished (ms); bounds the peer node write rate
+    private long refreshInterval;
+
+    @Value("${election.load.handoff-threshold:0}")
+    // CPU load (0-1) above which the leader looks for someone to take over; 0 = never hand over for load
+    private double handoffThreshold;
+
+    @Value("${election.load.handoff-after:30000}")
+    // How long the leader must stay above the threshold, and the pause between two handoff attempts (ms)
+    private long handoffAfter;
+
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    // Only touched on the placement thread
+    private boolean overloaded;      // Above the threshold since overloadedSince
+    private long overloadedSince;
+    private boolean attempted;       // A handoff was tried at lastAttempt
+    private long lastAttempt;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "leader-placement");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    public void init() {
+        if (refreshInterval < 1) {
+            throw new IllegalArgumentException("peer.load.refresh-interval must be positive");
+        }
+        executor.scheduleWithFixedDelay(this::tick, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+        logger.info("Leader placement: priority {}, load handoff {}", zooKeeperService.getPriority(),
+                handoffThreshold > 0 ? "above " + handoffThreshold + " CPU for " + handoffAfter + "ms" : "off");
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Work waiting on this node (whatever the application counts: queued jobs, open requests...)
+     * Published with the next refresh, used to break ties between candidates with the same CPU
+     */
+    public void setQueueDepth(int depth) {
+        queueDepth.set(Math.max(0, depth));
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    private void tick() {
+        try {
+            double cpu = sampleCpu();
+            zooKeeperService.reportLoad(cpu, queueDepth.get());
+            checkPlacement(cpu);
+        } catch (RuntimeException e) {
+            logger.error("Error checking leader placement", e);   // Keep the schedule alive
+        }
+    }
+
+    /**
+     * System CPU load 0-1, or -1 where the JVM can't tell
+     */
+    private double sampleCpu() {
+        if (os instanceof com.sun.management.OperatingSystemMXBean platform) {
+            double load = platform.getCpuLoad();
+            if (load >= 0) {
+                return load;
+            }
+        }
+        double average = os.getSystemLoadAverage();   // Unix only
+        return average < 0 ? -1 : Math.min(1.0, average / os.getAvailableProcessors());
+    }
+
+    private void checkPlacement(double cpu) {
+        ClusterState state = zooKeeperService.getClusterState();
+        long now = System.nanoTime();
+        if (state.getLeaderStatus() != LeaderStatus.LEADING || !state.isReady()) {
+            overloaded = false;
+            return;
+        }
+        if (handoffThreshold > 0 && cpu > handoffThreshold) {
+            if (!overloaded) {
+                overloaded = true;
+                overloadedSince = now;
+            }
+        } else {
+            overloaded = false;
+        }
+        if (attempted && now - lastAttempt < TimeUnit.MILLISECONDS.toNanos(handoffAfter)) {
+            return;
+        }
+
+        String bestId = zooKeeperService.bestCandidate();
+        PeerInfo best = bestId == null ? null : state.getPeerDetails().get(bestId);
+        if (best == null) {
+            return;
+        }
+        int myPriority = zooKeeperService.getPriority();
+        int bestPriority = best.getPriority() != null ? best.getPriority() : 0;
+        if (bestPriority > myPriority) {
+            handOver(best, "it has priority " + bestPriority + ", mine is " + myPriority, now);
+        } else if (overloaded && bestPriority == myPriority
+                && now - overloadedSince >= TimeUnit.MILLISECONDS.toNanos(handoffAfter)
+                && best.getCpu() != null && best.getCpu() < handoffThreshold
+                && best.getCpu() + CLEARLY_LESS_BUSY <= cpu) {
+            handOver(best, String.format("CPU %.2f here, %.2f there", cpu, best.getCpu()), now);
+        }
+    }
+
+    private void handOver(PeerInfo target, String reason, long now) {
+        attempted = true;
+        lastAttempt = now;
+        logger.info("Handing leadership to {}: {}", target.getId(), reason);
+        zooKeeperService.transferLeadership(target.getId()).whenComplete((leader, error) -> {
+            if (error != null) {
+                logger.warn("Leadership handoff to {} failed: {}", target.getId(), error.getMessage());
+            }
+        });
+    }
+}
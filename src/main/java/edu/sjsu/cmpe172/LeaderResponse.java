@@ -1,5 +1,7 @@
 package edu.sjsu.cmpe172;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.List;
 
 public class LeaderResponse {
@@ -9,11 +11,22 @@ public class LeaderResponse {
     private String myid;      // own ID
     private String description;  //Node description
     private List<String> peers;  // List of all peer nodes
+    private long version;        // Cluster state version, goes up on every change
+    private boolean ready;       // Has this node joined the cluster yet?
+    @JsonInclude(JsonInclude.Include.NON_NULL)   // Only in GET /leader?details=true
+    private List<PeerInfo> peerDetails;  // Description, host/port and registration time of each peer
+    @JsonInclude(JsonInclude.Include.NON_NULL)   // Only in GET /leader/groups/{group}
+    private String group;        // Election group this status is for
+    @JsonInclude(JsonInclude.Include.NON_NULL)   // Only while the leader/peers shown are the last confirmed ones
+    private Long confirmedAt;    // When they were last confirmed (ms since epoch)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long staleMs;        // How long ago that was
 
     public LeaderResponse() {}
 
     public LeaderResponse(String status, String zookeeper, String leader,                      // reference: https://learn.microsoft.com/en-us/azure/architecture/patterns/leader-election
-                          String myid, String description, List<String> peers) {               // reference: https://zookeeper.apache.org/doc/r3.1.2/javaExample.html
+                          String myid, String description, List<String> peers,                 // reference: https://zookeeper.apache.org/doc/r3.1.2/javaExample.html
+                          long version, boolean ready) {
         // Create response object
         this.status = status;
         this.zookeeper = zookeeper;
@@ -21,6 +34,8 @@ public class LeaderResponse {
         this.myid = myid;
         this.description = description;
         this.peers = peers;
+        this.version = version;
+        this.ready = ready;
     }
 
     // Getters and Setters                         // reference: https://docs.spring.io/spring-boot/reference/actuator/endpoints.html
@@ -71,4 +86,52 @@ public class LeaderResponse {
     public void setPeers(List<String> peers) {
         this.peers = peers;
     }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public void setReady(boolean ready) {
+        this.ready = ready;
+    }
+
+    public List<PeerInfo> getPeerDetails() {
+        return peerDetails;
+    }
+
+    public void setPeerDetails(List<PeerInfo> peerDetails) {
+        this.peerDetails = peerDetails;
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public void setGroup(String group) {
+        this.group = group;
+    }
+
+    public Long getConfirmedAt() {
+        return confirmedAt;
+    }
+
+    public void setConfirmedAt(Long confirmedAt) {
+        this.confirmedAt = confirmedAt;
+    }
+
+    public Long getStaleMs() {
+        return staleMs;
+    }
+
+    public void setStaleMs(Long staleMs) {
+        this.staleMs = staleMs;
+    }
 }
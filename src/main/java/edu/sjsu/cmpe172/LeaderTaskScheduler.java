@@ -0,0 +1,434 @@
+package edu.sjsu.cmpe172;
+
+import org.apache.zookeeper.*;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the registered LeaderJobs on whichever node leads, and only there
+ * A term starts when a snapshot says LEADING and CONNECTED: each job is submitted to the leader-job pool
+ * (once, or with its fixed delay). It ends with the first snapshot that doesn't: every job is cancelled
+ * and its thread interrupted right away, without waiting for the session to expire.
+ * Before its first run in a term a job waits for the leadership lease and claims its checkpoint node,
+ * /jobs/{name}: the node keeps the fencing token of the leader that claimed it last, and a lower token never
+ * claims it back. Saves are conditional on the version this term last wrote, so once its successor has claimed
+ * the node, a deposed leader that still thinks it leads can't overwrite anything.
+ */
+@Service
+public class LeaderTaskScheduler implements SessionListener {
+    private static final Logger logger = LoggerFactory.getLogger(LeaderTaskScheduler.class);
+
+    // One path segment, like lock names
+    private static final Pattern JOB_NAME = Pattern.compile("[A-Za-z0-9_][A-Za-z0-9_.-]{0,127}");
+
+    // Checkpoint node data: fencing token of the claim, 1 if a checkpoint follows (0 = never saved), checkpoint
+    private static final int HEADER = Long.BYTES + 1;
+    private static final int MAX_SAVE_ATTEMPTS = 3;
+
+    @Autowired
+    private ZooKeeperService zooKeeperService;
+
+    @Autowired
+    private ZooKeeperMetrics metrics;
+
+    @Autowired(required = false)
+    private List<LeaderJob> jobBeans;   // Every LeaderJob in the context
+
+    @Value("${leader.jobs.threads:4}")
+    // Threads for leader jobs; a job that runs for the whole term keeps one of them
+    private int threads;
+
+    @Value("${leader.jobs.checkpoint-timeout:5000}")
+    // How long reading or saving a checkpoint (and waiting for the lease before it) may take (ms)
+    private long checkpointTimeout;
+
+    private String JOBS_PATH;      // Parent of every checkpoint node
+
+    // Working state, guarded by this
+    private ZooKeeper zooKeeper;   // The shared client, null while there is no registered session
+    private final Map<String, LeaderJob> jobs = new LinkedHashMap<>();   // Registered jobs by name
+    private Map<String, Run> term; // Jobs of the current leadership term, null when not leading
+
+    private final Consumer<ClusterState> stateListener = this::onState;
+
+    private final AtomicInteger threadCount = new AtomicInteger();
+    private ScheduledThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        if (threads < 1) {
+            throw new IllegalArgumentException("leader.jobs.threads must be positive");
+        }
+        JOBS_PATH = zooKeeperService.getNamespacePath() + "/jobs";
+        executor = new ScheduledThreadPoolExecutor(threads, r -> {
+            Thread thread = new Thread(r, "leader-job-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        if (jobBeans != null) {
+            jobBeans.forEach(this::register);
+        }
+        zooKeeperService.addSessionListener(this);
+        zooKeeperService.addStateListener(stateListener);
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        zooKeeperService.removeStateListener(stateListener);
+        zooKeeperService.removeSessionListener(this);
+        synchronized (this) {
+            endTerm();
+        }
+        executor.shutdownNow();
+    }
+
+    // ========== Job API ==========
+
+    /**
+     * Add a job; if this node is leading right now it starts at once
+     */
+    public synchronized void register(LeaderJob job) {
+        if (!JOB_NAME.matcher(job.getName()).matches()) {
+            throw new IllegalArgumentException("Invalid job name: " + job.getName());
+        }
+        if (job.getPeriodMillis() < 0) {
+            throw new IllegalArgumentException("Negative period for job " + job.getName());
+        }
+        if (jobs.putIfAbsent(job.getName(), job) != null) {
+            throw new IllegalArgumentException("Job already registered: " + job.getName());
+        }
+        if (term != null) {
+            start(job);
+        }
+    }
+
+    /**
+     * Remove a job, cancelling it if it runs here; its checkpoint stays in ZooKeeper
+     */
+    public synchronized void unregister(String name) {
+        jobs.remove(name);
+        if (term != null) {
+            Run run = term.remove(name);
+            if (run != null) {
+                run.cancel();
+            }
+        }
+    }
+
+    /**
+     * Names of the jobs running (or waiting for their next run) on this node
+     */
+    public synchronized List<String> getRunningJobs() {
+        return term == null ? List.of() : new ArrayList<>(term.keySet());
+    }
+
+    // ========== Leadership terms ==========
+
+    /**
+     * Called with every snapshot (ZooKeeperService lock held): only flips a flag and submits or cancels tasks
+     */
+    private synchronized void onState(ClusterState state) {
+        boolean leading = state.getLeaderStatus() == LeaderStatus.LEADING
+                && state.getZkStatus() == ZooKeeperStatus.CONNECTED && zooKeeper != null;
+        if (leading && term == null) {
+            logger.info("Leading: starting {} leader jobs", jobs.size());
+            term = new LinkedHashMap<>();
+            jobs.values().forEach(this::start);
+        } else if (!leading && term != null) {
+            logger.info("Not leading anymore ({}, {}): cancelling leader jobs", state.getLeaderStatus(),
+                    state.getZkStatus());
+            endTerm();
+        }
+    }
+
+    private void start(LeaderJob job) {
+        Run run = new Run(job, new LeaderJobContext(this, job.getName(), JOBS_PATH + "/" + job.getName(),
+                zooKeeperService.getLeadershipLease()), zooKeeper);
+        if (job.getPeriodMillis() > 0) {
+            run.future = executor.scheduleWithFixedDelay(() -> runOnce(run), 0, job.getPeriodMillis(),
+                    TimeUnit.MILLISECONDS);
+        } else {
+            run.future = executor.submit(() -> runOnce(run));
+        }
+        term.put(job.getName(), run);
+    }
+
+    private void endTerm() {
+        if (term != null) {
+            term.values().forEach(Run::cancel);
+            term = null;
+        }
+    }
+
+    /**
+     * One run of a job on a leader-job thread; never throws, so a periodic job keeps its schedule
+     */
+    private void runOnce(Run run) {
+        LeaderJobContext context = run.context;
+        try {
+            if (!context.loaded) {
+                context.token = awaitLease(context);
+                Stored stored = await(claim(run), run);
+                context.loaded(stored.checkpoint, stored.version);
+            }
+            if (!context.isCancelled()) {
+                run.job.run(context);
+            }
+        } catch (InterruptedException | CancellationException e) {
+            if (!context.isCancelled()) {
+                logger.warn("Leader job {} stopped", run.job.getName(), e);
+            }
+        } catch (Exception e) {
+            logger.error("Leader job {} failed", run.job.getName(), e);
+        }
+    }
+
+    /**
+     * The fencing token of the lease; a term can start a moment before the lease is granted
+     * (a transfer, a win found by reading), and a lease that lapsed for a moment is waited for too
+     */
+    private long awaitLease(LeaderJobContext context) throws InterruptedException, TimeoutException {
+        try {
+            return context.lease.whenGranted().get(checkpointTimeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new TimeoutException("No leadership lease for job " + context.getName());
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());   // Never completed that way
+        }
+    }
+
+    // ========== Checkpoints ==========
+
+    /**
+     * Take the checkpoint node over for the term's token: write it back with my token, unless a higher one is there
+     * The write bumps the version, so a deposed leader's next save (conditional on the version it had) fails
+     */
+    private CompletableFuture<Stored> claim(Run run) {
+        CompletableFuture<Stored> claimed = new CompletableFuture<>();
+        claim(run, run.context.token, claimed);
+        return claimed;
+    }
+
+    private void claim(Run run, long token, CompletableFuture<Stored> claimed) {
+        long start = System.nanoTime();
+        run.client.getData(run.context.path, false, (rc, path, ctx, data, stat) -> {
+            metrics.recordOperation(ZkOperation.GET_DATA, start, rc);
+            if (rc == Code.NONODE.intValue()) {
+                createParent(run.client);   // Never saved, start from scratch
+                long createStart = System.nanoTime();
+                run.client.create(path, encode(token, null), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT,
+                        (createRc, createPath, createCtx, name, createStat) -> {
+                            metrics.recordOperation(ZkOperation.CREATE, createStart, createRc);
+                            onClaimed(run, token, claimed, createRc, null, createStat);
+                        }, null);
+            } else if (rc != Code.OK.intValue()) {
+                claimed.completeExceptionally(KeeperException.create(Code.get(rc), path));
+            } else if (tokenOf(data) > token) {
+                claimed.completeExceptionally(new CancellationException("Checkpoint " + path + " was claimed by a newer leader"));
+            } else {
+                byte[] checkpoint = checkpointOf(data);
+                long setStart = System.nanoTime();
+                run.client.setData(path, encode(token, checkpoint), stat.getVersion(), (setRc, setPath, setCtx, setStat) -> {
+                    metrics.recordOperation(ZkOperation.SET_DATA, setStart, setRc);
+                    onClaimed(run, token, claimed, setRc, checkpoint, setStat);
+                }, null);
+            }
+        }, null);
+    }
+
+    private void onClaimed(Run run, long token, CompletableFuture<Stored> claimed, int rc, byte[] checkpoint, Stat stat) {
+        if (rc == Code.OK.intValue()) {
+            claimed.complete(new Stored(checkpoint, stat.getVersion()));
+        } else if (rc == Code.NODEEXISTS.intValue() || rc == Code.BADVERSION.intValue()) {
+            claim(run, token, claimed);   // Written in between, look at it again
+        } else {
+            claimed.completeExceptionally(KeeperException.create(Code.get(rc), run.context.path));
+        }
+    }
+
+    /**
+     * Store one checkpoint, conditional on the version this term last read or wrote
+     * The lease is checked here, not while the job runs: a lapse is waited out, a new token claims the node again
+     */
+    void saveCheckpoint(LeaderJobContext context, byte[] data) throws InterruptedException {
+        Run run;
+        synchronized (this) {
+            run = term == null ? null : term.get(context.getName());
+        }
+        if (run == null || run.context != context) {
+            throw new CancellationException("No longer leading, checkpoint of " + context.getName() + " not saved");
+        }
+        synchronized (context) {
+            try {
+                long token = awaitLease(context);
+                if (token != context.token) {
+                    // Leading under a new /leader node (won again after a reconnect): claim the node with it
+                    context.token = token;
+                    Stored stored = await(claim(run), run);
+                    context.loaded(stored.checkpoint, stored.version);
+                }
+                for (int attempt = 1; attempt <= MAX_SAVE_ATTEMPTS; attempt++) {
+                    CompletableFuture<Integer> saved = new CompletableFuture<>();
+                    long start = System.nanoTime();
+                    run.client.setData(context.path, encode(context.token, data), context.checkpointVersion,
+                            (rc, path, ctx, stat) -> {
+                                metrics.recordOperation(ZkOperation.SET_DATA, start, rc);
+                                if (rc == Code.OK.intValue()) {
+                                    saved.complete(stat.getVersion());
+                                } else if (rc == Code.BADVERSION.intValue() || rc == Code.NONODE.intValue()) {
+                                    saved.complete(-1);
+                                } else {
+                                    saved.completeExceptionally(KeeperException.create(Code.get(rc), path));
+                                }
+                            }, null);
+                    int version = await(saved, run);
+                    if (version >= 0) {
+                        context.loaded(data, version);
+                        return;
+                    }
+                    // Changed since this term last wrote it (a write whose answer was lost, say): claim it again,
+                    // which only fails if a newer leader has it
+                    Stored stored = await(claim(run), run);
+                    context.loaded(stored.checkpoint, stored.version);
+                }
+                throw new IllegalStateException("Checkpoint of " + context.getName() + " kept changing, not saved");
+            } catch (TimeoutException e) {
+                throw new IllegalStateException("Checkpoint of " + context.getName() + " not confirmed", e);
+            }
+        }
+    }
+
+    private void createParent(ZooKeeper client) {
+        long start = System.nanoTime();
+        client.create(JOBS_PATH, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT,
+                (rc, path, ctx, name) -> {
+                    metrics.recordOperation(ZkOperation.CREATE, start, rc);
+                    if (rc != Code.OK.intValue() && rc != Code.NODEEXISTS.intValue()) {
+                        logger.error("Error creating jobs path", KeeperException.create(Code.get(rc), path));
+                    }
+                }, null);
+    }
+
+    /**
+     * Wait for a checkpoint read or write; a cancelled term interrupts this thread, so it doesn't wait long
+     */
+    private <T> T await(CompletableFuture<T> future, Run run) throws InterruptedException, TimeoutException {
+        try {
+            return future.get(checkpointTimeout, TimeUnit.MILLISECONDS);
+        } catch (CancellationException e) {
+            // get() throws it as it is: a newer leader claimed the checkpoint
+            deposed(run);
+            throw e;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Checkpoint of " + run.job.getName() + " failed", e.getCause());
+        }
+    }
+
+    /**
+     * A newer leader claimed the checkpoint: this run is over, even if no snapshot has said so yet
+     */
+    private synchronized void deposed(Run run) {
+        if (term != null && term.get(run.job.getName()) == run) {
+            term.remove(run.job.getName());
+        }
+        run.cancel();
+    }
+
+    private static byte[] encode(long token, byte[] checkpoint) {
+        ByteBuffer out = ByteBuffer.allocate(HEADER + (checkpoint == null ? 0 : checkpoint.length));
+        out.putLong(token).put((byte) (checkpoint == null ? 0 : 1));
+        if (checkpoint != null) {
+            out.put(checkpoint);
+        }
+        return out.array();
+    }
+
+    private static long tokenOf(byte[] data) {
+        return data != null && data.length >= HEADER ? ByteBuffer.wrap(data).getLong() : LeadershipLease.NO_TOKEN;
+    }
+
+    private static byte[] checkpointOf(byte[] data) {
+        if (data == null || data.length < HEADER || data[Long.BYTES] == 0) {
+            return null;
+        }
+        return Arrays.copyOfRange(data, HEADER, data.length);
+    }
+
+    // ========== Session hooks (ZooKeeperService lock held) ==========
+
+    @Override
+    public synchronized void onSessionStarted(ZooKeeper zooKeeper, String myId) {
+        this.zooKeeper = zooKeeper;
+    }
+
+    @Override
+    public void onReconnected() {
+        // Nothing to re-read: a term only lasts while connected, the next one reads its checkpoints again
+    }
+
+    @Override
+    public synchronized void onSessionLost() {
+        zooKeeper = null;
+        endTerm();   // The snapshot that follows says the same, this just doesn't wait for it
+    }
+
+    @Override
+    public void onPersistentEvent(WatchedEvent event) {
+        // Checkpoints are only read at the start of a term, no events needed
+    }
+
+    // One job in one leadership term
+    private static final class Run {
+        private final LeaderJob job;
+        private final LeaderJobContext context;
+        private final ZooKeeper client;   // The session the term belongs to
+        private Future<?> future;
+
+        private Run(LeaderJob job, LeaderJobContext context, ZooKeeper client) {
+            this.job = job;
+            this.context = context;
+            this.client = client;
+        }
+
+        private void cancel() {
+            context.cancel();
+            future.cancel(true);   // Interrupts it if it's running, drops it if it's waiting
+        }
+    }
+
+    // A checkpoint as read or claimed, with the version of its node
+    private static final class Stored {
+        private final byte[] checkpoint;   // null if never saved
+        private final int version;
+
+        private Stored(byte[] checkpoint, int version) {
+            this.checkpoint = checkpoint;
+            this.version = version;
+        }
+    }
+}
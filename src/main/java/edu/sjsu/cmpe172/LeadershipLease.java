@@ -0,0 +1,102 @@
+package edu.sjsu.cmpe172;
+
+import org.apache.zookeeper.ZooKeeper;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * "Am I the leader?" for the hot path, answered from memory
+ * ZooKeeperService grants the lease when it wins /leader and renews it with a cheap exists() while leading;
+ * each answer from the server extends it to (time the request was sent + 2/3 of the session timeout),
+ * which is the same bound the client itself uses before it declares the connection lost.
+ * The server can't have expired my session, and so nobody else can lead, before that point.
+ * It is void at once when leadership is lost, or when the client is no longer CONNECTED
+ * (that state is kept by the client's IO thread, so this doesn't wait for the Disconnected event to be handled).
+ *
+ * The fencing token is the czxid of my /leader node: every new leader's node is created later,
+ * so tokens only go up, and a downstream system that remembers the highest token it has seen
+ * can turn away writes from a deposed leader without asking ZooKeeper.
+ */
+public final class LeadershipLease {
+    public static final long NO_TOKEN = -1;   // Not leading, or can't be sure of it anymore
+
+    private volatile Grant grant;   // null = no lease
+    private CompletableFuture<Long> nextGrant = new CompletableFuture<>();   // Completed by the next grant, guarded by this
+
+    /**
+     * The fencing token if the lease is valid right now, NO_TOKEN otherwise
+     * One volatile read, a clock read and a state read: no locks, no allocation
+     */
+    public long validToken() {
+        Grant current = grant;
+        if (current == null
+                || current.expiresAt - System.nanoTime() <= 0
+                || current.client.getState() != ZooKeeper.States.CONNECTED) {
+            return NO_TOKEN;
+        }
+        return current.token;
+    }
+
+    public boolean isValid() {
+        return validToken() != NO_TOKEN;
+    }
+
+    /**
+     * The fencing token, or IllegalStateException if I can't be sure I'm the leader
+     */
+    public long requireToken() {
+        long token = validToken();
+        if (token == NO_TOKEN) {
+            throw new IllegalStateException("Not holding the leadership lease");
+        }
+        return token;
+    }
+
+    /**
+     * How long the lease lasts without another renewal (0 if it isn't valid)
+     */
+    public long getRemainingNanos() {
+        Grant current = grant;
+        if (current == null || validToken() == NO_TOKEN) {
+            return 0;
+        }
+        return Math.max(0, current.expiresAt - System.nanoTime());
+    }
+
+    /**
+     * Completes with the fencing token once the lease is valid; already completed if it is valid now
+     * Completed on the thread that grants the lease (ZooKeeperService lock held), so don't chain blocking work on it
+     */
+    public synchronized CompletableFuture<Long> whenGranted() {
+        long token = validToken();
+        if (token != NO_TOKEN) {
+            return CompletableFuture.completedFuture(token);
+        }
+        if (nextGrant.isDone()) {
+            nextGrant = new CompletableFuture<>();   // That grant has run out since
+        }
+        return nextGrant;
+    }
+
+    synchronized void grant(ZooKeeper client, long token, long expiresAt) {
+        grant = new Grant(client, token, expiresAt);
+        nextGrant.complete(token);
+    }
+
+    void revoke() {
+        grant = null;
+    }
+
+    // One grant or renewal, swapped in whole so token and expiry always match
+    private static final class Grant {
+        private final ZooKeeper client;   // The session the lease belongs to
+        private final long token;         // czxid of my /leader node
+        private final long expiresAt;     // System.nanoTime() deadline
+
+        private Grant(ZooKeeper client, long token, long expiresAt) {
+            this.client = client;
+            this.token = token;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
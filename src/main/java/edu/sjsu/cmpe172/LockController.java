@@ -0,0 +1,112 @@
+package edu.sjsu.cmpe172;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import jakarta.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Distributed locks over HTTP: /leader/locks/{name}
+ * A lock taken here is held on behalf of the client until it DELETEs it or its ttl runs out
+ */
+@RestController
+@RequestMapping("/leader/locks")
+public class LockController {
+    private static final long RESPONSE_MARGIN = 1000;   // Extra time the request gets beyond the lock timeout (ms)
+
+    @Autowired
+    private DistributedLockService lockService;
+
+    @Value("${lock.rest.max-ttl:60000}")
+    // Longest a lock taken over HTTP is held before it is released for the client (ms)
+    private long maxTtl;
+
+    // Locks held for HTTP clients, "name/token-sequence" -> handle
+    private final Map<String, LockHandle> handles = new ConcurrentHashMap<>();
+
+    // Releases locks whose ttl ran out
+    private final ScheduledExecutorService expiry = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "lock-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PreDestroy
+    public void cleanup() {
+        expiry.shutdownNow();
+    }
+
+    // POST /leader/locks/{name}?timeout=5000&ttl=30000 - Wait up to timeout (ms) for the lock
+    // 200 with the handle to release it with, 504 if it didn't come in time, 400 for a bad name
+    // If the request is gone before the lock comes (async timeout), the wait is given up, so nobody holds it unseen
+    // Test with curl: curl -X POST "http://localhost:8082/leader/locks/invoice-run?timeout=2000&ttl=10000"
+    @PostMapping("/{name}")
+    public DeferredResult<ResponseEntity<Map<String, Object>>> acquire(@PathVariable String name,
+                                                                       @RequestParam(defaultValue = "5000") long timeout,
+                                                                       @RequestParam(required = false) Long ttl) {
+        long holdFor = ttl == null ? maxTtl : Math.min(ttl, maxTtl);
+        // The lock's own timeout normally answers first (504); this one only covers a grant that comes too late
+        DeferredResult<ResponseEntity<Map<String, Object>>> result = new DeferredResult<>(timeout + RESPONSE_MARGIN);
+        CompletableFuture<LockHandle> waiter;
+        try {
+            waiter = lockService.acquireAsync(name, timeout);
+        } catch (IllegalArgumentException e) {
+            result.setResult(ResponseEntity.badRequest().build());
+            return result;
+        }
+        result.onTimeout(() -> {
+            lockService.cancel(name, waiter);
+            result.setResult(ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).build());
+        });
+        waiter.whenComplete((handle, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                result.setResult(ResponseEntity.status(cause instanceof TimeoutException
+                        ? HttpStatus.GATEWAY_TIMEOUT : HttpStatus.CONFLICT).build());
+                return;
+            }
+            String id = handle.toString();
+            handles.put(id, handle);   // Before the answer goes out, so a DELETE right after it finds the handle
+            expiry.schedule(() -> {
+                if (handles.remove(id, handle)) {
+                    handle.close();
+                }
+            }, holdFor, TimeUnit.MILLISECONDS);
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("name", name);
+            body.put("handle", handle.getToken() + "-" + handle.getSequence());
+            body.put("token", handle.getToken());
+            body.put("sequence", handle.getSequence());
+            body.put("ttlMs", holdFor);
+            if (!result.setResult(ResponseEntity.ok(body)) && handles.remove(id, handle)) {
+                handle.close();   // Nobody is waiting for this answer anymore
+            }
+        });
+        return result;
+    }
+
+    // DELETE /leader/locks/{name}/{handle} - Release a lock taken with POST; 404 if it isn't held anymore
+    // Test with curl: curl -X DELETE http://localhost:8082/leader/locks/invoice-run/4294967302-1
+    @DeleteMapping("/{name}/{handle}")
+    public ResponseEntity<String> release(@PathVariable String name, @PathVariable String handle) {
+        LockHandle held = handles.remove(name + "/" + handle);
+        if (held == null) {
+            return ResponseEntity.notFound().build();
+        }
+        held.close();
+        return ResponseEntity.ok("Released " + name);
+    }
+}
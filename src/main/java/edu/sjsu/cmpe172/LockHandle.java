@@ -0,0 +1,64 @@
+package edu.sjsu.cmpe172;
+
+import org.apache.zookeeper.ZooKeeper;
+
+/**
+ * One holder's turn on a named lock from DistributedLockService
+ * Close it to pass the lock on (to the next local waiter if there is one, otherwise back to ZooKeeper).
+ * Fencing: the token is the czxid of this JVM's contender node, so it goes up with every ZooKeeper-level acquire;
+ * the sequence counts the local handoffs under that token. Compare (token, sequence) in that order.
+ */
+public final class LockHandle implements AutoCloseable {
+    private final DistributedLockService service;
+    private final String name;
+    private final ZooKeeper client;   // Session the contender node belongs to
+    private final long token;         // czxid of the contender node
+    private final long sequence;      // Local turn under this token, from 1
+    private volatile boolean released;
+
+    LockHandle(DistributedLockService service, String name, ZooKeeper client, long token, long sequence) {
+        this.service = service;
+        this.name = name;
+        this.client = client;
+        this.token = token;
+        this.sequence = sequence;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getToken() {
+        return token;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Still mine: not released, not lost with the session, and the client is CONNECTED right now
+     */
+    public boolean isValid() {
+        return !released && client.getState() == ZooKeeper.States.CONNECTED;
+    }
+
+    /**
+     * Release the lock; does nothing the second time
+     */
+    @Override
+    public void close() {
+        if (!released) {
+            service.release(this);
+        }
+    }
+
+    void invalidate() {
+        released = true;
+    }
+
+    @Override
+    public String toString() {
+        return name + "/" + token + "-" + sequence;
+    }
+}
@@ -0,0 +1,35 @@
+package edu.sjsu.cmpe172;
+
+import java.util.List;
+
+/**
+ * One applied change to the peer set
+ * joined/left only hold the peers that actually changed, members is the full sorted set after the change
+ */
+public final class MembershipChange {
+    private final List<String> joined;    // New peers (sorted)
+    private final List<String> left;      // Peers that went away (sorted)
+    private final List<String> members;   // Everyone after the change (sorted, read-only)
+
+    MembershipChange(List<String> joined, List<String> left, List<String> members) {
+        this.joined = List.copyOf(joined);
+        this.left = List.copyOf(left);
+        this.members = members;
+    }
+
+    public boolean isEmpty() {
+        return joined.isEmpty() && left.isEmpty();
+    }
+
+    public List<String> getJoined() {
+        return joined;
+    }
+
+    public List<String> getLeft() {
+        return left;
+    }
+
+    public List<String> getMembers() {
+        return members;
+    }
+}
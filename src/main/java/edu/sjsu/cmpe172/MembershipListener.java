@@ -0,0 +1,9 @@
+package edu.sjsu.cmpe172;
+
+/**
+ * Told about peer joins and leaves, already coalesced into one change per burst
+ * Called on the ZooKeeperService publishing thread with its lock held, so implementations must not block
+ */
+public interface MembershipListener {
+    void onMembershipChange(MembershipChange change);
+}
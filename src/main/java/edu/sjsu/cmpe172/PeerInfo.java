@@ -0,0 +1,81 @@
+package edu.sjsu.cmpe172;
+
+import java.util.Comparator;
+
+/**
+ * What a peer wrote into its /peers node, plus when the node was created
+ * Read once when the peer joins (and again if its data changes), then served from memory
+ * Priority, candidacy and load are null for peers that don't publish them (older versions)
+ */
+public final class PeerInfo {
+    /**
+     * Best leader first: higher priority, then lower CPU, then shorter queue (unknown load sorts last)
+     */
+    public static final Comparator<PeerInfo> BY_PREFERENCE = Comparator
+            .comparingInt((PeerInfo info) -> info.priority != null ? info.priority : 0).reversed()
+            .thenComparing(info -> info.cpu, Comparator.nullsLast(Comparator.naturalOrder()))
+            .thenComparing(info -> info.queueDepth, Comparator.nullsLast(Comparator.naturalOrder()));
+
+    private final String id;            // peer-000000xxx
+    private final String description;   // Its myDescription
+    private final String host;          // Where its HTTP API listens (null for peers that only wrote a description)
+    private final Integer port;
+    private final long registeredAt;    // Creation time of its peer node (ms since epoch, ZK server clock)
+    private final Integer priority;     // election.priority, higher = preferred leader
+    private final Boolean candidate;    // Is it running for leader?
+    private final Double cpu;           // System CPU load, 0-1, as last published
+    private final Integer queueDepth;   // Work waiting on it, as last published
+
+    public PeerInfo(String id, String description, String host, Integer port, long registeredAt) {
+        this(id, description, host, port, registeredAt, null, null, null, null);
+    }
+
+    public PeerInfo(String id, String description, String host, Integer port, long registeredAt,
+                    Integer priority, Boolean candidate, Double cpu, Integer queueDepth) {
+        this.id = id;
+        this.description = description;
+        this.host = host;
+        this.port = port;
+        this.registeredAt = registeredAt;
+        this.priority = priority;
+        this.candidate = candidate;
+        this.cpu = cpu;
+        this.queueDepth = queueDepth;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public Integer getPort() {
+        return port;
+    }
+
+    public long getRegisteredAt() {
+        return registeredAt;
+    }
+
+    public Integer getPriority() {
+        return priority;
+    }
+
+    public Boolean getCandidate() {
+        return candidate;
+    }
+
+    public Double getCpu() {
+        return cpu;
+    }
+
+    public Integer getQueueDepth() {
+        return queueDepth;
+    }
+}
@@ -0,0 +1,105 @@
+package edu.sjsu.cmpe172;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Sorted peer set that is changed by deltas instead of rebuilt
+ * - replaceAll(): a full getChildren result, diffed against the current set
+ * - joined()/left(): single events (PERSISTENT watch mode), buffered until flush()
+ * Bursts of events become one MembershipChange, and the cost of applying it follows the size of the change
+ * (plus one copy of the member list for the published snapshot)
+ */
+final class PeerMembership {
+    private final TreeSet<String> members = new TreeSet<>();
+    private final Set<String> pendingJoined = new HashSet<>();
+    private final Set<String> pendingLeft = new HashSet<>();
+    private List<String> memberList = List.of();   // Read-only copy of members, rebuilt only when it changes
+
+    /**
+     * Apply a full child list; events buffered before it are already reflected in it
+     */
+    synchronized MembershipChange replaceAll(Collection<String> current) {
+        pendingJoined.clear();
+        pendingLeft.clear();
+        Set<String> incoming = new HashSet<>(current);
+        List<String> joined = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        for (String peer : incoming) {
+            if (!members.contains(peer)) {
+                joined.add(peer);
+            }
+        }
+        for (String peer : members) {
+            if (!incoming.contains(peer)) {
+                left.add(peer);
+            }
+        }
+        return apply(joined, left);
+    }
+
+    synchronized void joined(String peer) {
+        if (!pendingLeft.remove(peer)) {
+            pendingJoined.add(peer);
+        }
+    }
+
+    synchronized void left(String peer) {
+        if (!pendingJoined.remove(peer)) {
+            pendingLeft.add(peer);
+        }
+    }
+
+    synchronized boolean hasPending() {
+        return !pendingJoined.isEmpty() || !pendingLeft.isEmpty();
+    }
+
+    /**
+     * Apply everything buffered by joined()/left() as one change
+     */
+    synchronized MembershipChange flush() {
+        List<String> joined = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        for (String peer : pendingJoined) {
+            if (!members.contains(peer)) {
+                joined.add(peer);
+            }
+        }
+        for (String peer : pendingLeft) {
+            if (members.contains(peer)) {
+                left.add(peer);
+            }
+        }
+        pendingJoined.clear();
+        pendingLeft.clear();
+        return apply(joined, left);
+    }
+
+    /**
+     * Session gone: everyone counts as left
+     */
+    synchronized MembershipChange clear() {
+        pendingJoined.clear();
+        pendingLeft.clear();
+        return apply(new ArrayList<>(), new ArrayList<>(members));
+    }
+
+    synchronized List<String> getMembers() {
+        return memberList;
+    }
+
+    private MembershipChange apply(List<String> joined, List<String> left) {
+        if (!joined.isEmpty() || !left.isEmpty()) {
+            members.addAll(joined);
+            members.removeAll(left);
+            memberList = List.copyOf(members);   // TreeSet order = sorted
+            joined.sort(null);
+            left.sort(null);
+        }
+        return new MembershipChange(joined, left, memberList);
+    }
+}
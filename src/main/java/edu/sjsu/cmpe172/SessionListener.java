@@ -0,0 +1,31 @@
+package edu.sjsu.cmpe172;
+
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.ZooKeeper;
+
+/**
+ * Hooks for components that do their own ZK work on ZooKeeperService's session (election groups etc.)
+ * Called on the ZooKeeperService publishing thread with its lock held, so implementations must not block
+ * and must never call back into synchronized ZooKeeperService methods
+ */
+interface SessionListener {
+    /**
+     * Registered in a new session; myId is my peer ID for as long as this client lives
+     */
+    void onSessionStarted(ZooKeeper zooKeeper, String myId);
+
+    /**
+     * PERSISTENT watch mode: reconnected within the same session, changes made meanwhile were not replayed
+     */
+    void onReconnected();
+
+    /**
+     * The session expired, every ephemeral node it owned is gone
+     */
+    void onSessionLost();
+
+    /**
+     * PERSISTENT watch mode: an event under the namespace that ZooKeeperService didn't handle itself
+     */
+    void onPersistentEvent(WatchedEvent event);
+}
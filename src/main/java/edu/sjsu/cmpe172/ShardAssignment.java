@@ -0,0 +1,110 @@
+package edu.sjsu.cmpe172;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Immutable shard -> peer assignment, published by ShardAssignmentService after each membership change
+ * Keys map to a fixed number of shards (hash mod shards), shards map to peers through the consistent-hash ring,
+ * so a membership change only moves the shards on the arcs of the peers that joined or left
+ * Lookups are one hash and an array read, no locks
+ */
+public final class ShardAssignment {
+    private final long version;                  // Bumped on every change, starts at 0
+    private final int shardCount;
+    private final String[] shardOwners;          // Peer owning each shard (null while nobody is known)
+    private final Map<String, List<Integer>> shardsByPeer;   // Sorted shard numbers per peer (read-only)
+
+    ShardAssignment(long version, String[] shardOwners) {
+        this.version = version;
+        this.shardCount = shardOwners.length;
+        this.shardOwners = shardOwners.clone();
+        Map<String, List<Integer>> byPeer = new HashMap<>();
+        for (int shard = 0; shard < shardCount; shard++) {
+            String owner = shardOwners[shard];
+            if (owner != null) {
+                byPeer.computeIfAbsent(owner, k -> new ArrayList<>()).add(shard);
+            }
+        }
+        byPeer.replaceAll((peer, shards) -> List.copyOf(shards));
+        this.shardsByPeer = Map.copyOf(byPeer);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * Which shard a key falls in; stable as long as the shard count doesn't change
+     */
+    public int shardOf(String key) {
+        return Math.floorMod(hash(key), shardCount);
+    }
+
+    /**
+     * Peer that owns a shard, null if no peer is known
+     */
+    public String ownerOfShard(int shard) {
+        return shardOwners[shard];
+    }
+
+    /**
+     * Peer that owns a key (through its shard)
+     */
+    public String ownerOf(String key) {
+        return shardOwners[shardOf(key)];
+    }
+
+    /**
+     * Shards a peer owns, sorted; empty for unknown peers
+     */
+    public List<Integer> shardsOf(String peer) {
+        return peer == null ? List.of() : shardsByPeer.getOrDefault(peer, List.of());
+    }
+
+    public Map<String, List<Integer>> getShardsByPeer() {
+        return shardsByPeer;
+    }
+
+    /**
+     * Number of shards whose owner differs from the previous assignment
+     */
+    int movedFrom(ShardAssignment previous) {
+        if (previous.shardCount != shardCount) {
+            return shardCount;
+        }
+        int moved = 0;
+        for (int shard = 0; shard < shardCount; shard++) {
+            if (!Objects.equals(previous.shardOwners[shard], shardOwners[shard])) {
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * 64-bit FNV-1a with a murmur3 finalizer: every node must compute the same ring,
+     * and String.hashCode() would bunch up IDs that only differ in the last digits
+     */
+    static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,200 @@
+package edu.sjsu.cmpe172;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Spreads work over the live peers with consistent hashing
+ * Every peer gets assignment.virtual-nodes points on a 64-bit ring (hash of "peerId#n"), and every shard
+ * belongs to the first point at or after its own hash. All nodes see the same sorted peer set,
+ * so they all compute the same assignment without talking to each other.
+ * The ring is changed by the membership deltas, not rebuilt: a peer that left gives up only its own shards,
+ * a peer that joined only takes the shards on the arcs just before its points; nothing else moves.
+ */
+@Service
+public class ShardAssignmentService implements MembershipListener {
+    private static final Logger logger = LoggerFactory.getLogger(ShardAssignmentService.class);
+
+    @Autowired
+    private ZooKeeperService zooKeeperService;
+
+    @Value("${assignment.shards:1024}")
+    // Keys are hashed into this many shards; changing it reshuffles everything, so pick it once
+    private int shardCount;
+
+    @Value("${assignment.virtual-nodes:128}")
+    // Points per peer on the ring; more points = more even shares, bigger ring
+    private int virtualNodes;
+
+    // Working state, guarded by this (changed on the ZooKeeperService publishing thread)
+    private final TreeMap<Long, String> ring = new TreeMap<>();   // Ring position -> peer
+    private long[] shardPoints;     // Shard hashes, sorted
+    private int[] shardAtPoint;     // Shard number of each entry in shardPoints
+    private String[] owners;        // Working copy of the owner per shard
+
+    private volatile ShardAssignment assignment;   // What readers see
+    private final List<Consumer<ShardAssignment>> listeners = new CopyOnWriteArrayList<>();
+
+    @PostConstruct
+    public void init() {
+        if (shardCount < 1 || virtualNodes < 1) {
+            throw new IllegalArgumentException("assignment.shards and assignment.virtual-nodes must be positive");
+        }
+        Integer[] order = new Integer[shardCount];
+        long[] hashes = new long[shardCount];
+        for (int shard = 0; shard < shardCount; shard++) {
+            order[shard] = shard;
+            hashes[shard] = ShardAssignment.hash("shard-" + shard);
+        }
+        Arrays.sort(order, Comparator.comparingLong(shard -> hashes[shard]));
+        shardPoints = new long[shardCount];
+        shardAtPoint = new int[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shardAtPoint[i] = order[i];
+            shardPoints[i] = hashes[order[i]];
+        }
+        owners = new String[shardCount];
+        assignment = new ShardAssignment(0, owners);
+        zooKeeperService.addMembershipListener(this);
+        logger.info("Shard assignment: {} shards, {} virtual nodes per peer", shardCount, virtualNodes);
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        zooKeeperService.removeMembershipListener(this);
+    }
+
+    /**
+     * Apply one coalesced delta to the ring and move only the shards it affects
+     */
+    @Override
+    public synchronized void onMembershipChange(MembershipChange change) {
+        ShardAssignment previous = assignment;
+        for (String peer : change.getLeft()) {
+            for (int n = 0; n < virtualNodes; n++) {
+                ring.remove(ShardAssignment.hash(peer + "#" + n), peer);
+            }
+        }
+        for (String peer : change.getJoined()) {
+            for (int n = 0; n < virtualNodes; n++) {
+                ring.putIfAbsent(ShardAssignment.hash(peer + "#" + n), peer);   // A collision just leaves the point to the first peer
+            }
+        }
+
+        if (ring.isEmpty()) {
+            Arrays.fill(owners, null);
+        } else if (previous.getShardsByPeer().isEmpty()) {
+            reassign(0, shardCount);   // First peers: everything needs an owner
+        } else {
+            for (String peer : change.getLeft()) {
+                for (int shard : previous.shardsOf(peer)) {
+                    owners[shard] = ownerOf(ShardAssignment.hash("shard-" + shard));
+                }
+            }
+            for (String peer : change.getJoined()) {
+                for (int n = 0; n < virtualNodes; n++) {
+                    long point = ShardAssignment.hash(peer + "#" + n);
+                    if (peer.equals(ring.get(point))) {
+                        takeArc(point);
+                    }
+                }
+            }
+        }
+
+        ShardAssignment next = new ShardAssignment(previous.getVersion() + 1, owners);
+        assignment = next;
+        String myId = zooKeeperService.getClusterState().getMyId();
+        logger.info("Shard assignment {}: {} of {} shards moved, {} mine", next.getVersion(),
+                next.movedFrom(previous), shardCount, next.shardsOf(myId).size());
+        for (Consumer<ShardAssignment> listener : listeners) {
+            listener.accept(next);
+        }
+    }
+
+    /**
+     * A new point took over the arc between the point before it and itself
+     */
+    private void takeArc(long point) {
+        Long before = ring.lowerKey(point);
+        if (before == null) {
+            // Lowest point: its arc wraps around, from the highest point to the end and from the start to here
+            reassign(firstAfter(ring.lastKey()), shardCount);
+            reassign(0, firstAfter(point));
+        } else {
+            reassign(firstAfter(before), firstAfter(point));
+        }
+    }
+
+    /**
+     * Look the owner up again for shardPoints[from, to)
+     */
+    private void reassign(int from, int to) {
+        for (int i = from; i < to; i++) {
+            owners[shardAtPoint[i]] = ownerOf(shardPoints[i]);
+        }
+    }
+
+    /**
+     * Index of the first shard point greater than the value
+     */
+    private int firstAfter(long value) {
+        int index = Arrays.binarySearch(shardPoints, value);
+        if (index < 0) {
+            return -index - 1;
+        }
+        while (index < shardCount && shardPoints[index] == value) {
+            index++;
+        }
+        return index;
+    }
+
+    private String ownerOf(long point) {
+        Map.Entry<Long, String> entry = ring.ceilingEntry(point);
+        return (entry != null ? entry : ring.firstEntry()).getValue();
+    }
+
+    // ========== Read API (lock-free) ==========
+
+    public ShardAssignment getAssignment() {
+        return assignment;
+    }
+
+    /**
+     * Shards this node owns right now, sorted
+     */
+    public List<Integer> getMyShards() {
+        return assignment.shardsOf(zooKeeperService.getMyId());
+    }
+
+    /**
+     * Does this node own the key right now?
+     */
+    public boolean isMine(String key) {
+        String myId = zooKeeperService.getMyId();
+        return myId != null && myId.equals(assignment.ownerOf(key));
+    }
+
+    /**
+     * Get every new assignment; runs on the ZooKeeperService publishing thread, so don't block
+     */
+    public void addAssignmentListener(Consumer<ShardAssignment> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeAssignmentListener(Consumer<ShardAssignment> listener) {
+        listeners.remove(listener);
+    }
+}
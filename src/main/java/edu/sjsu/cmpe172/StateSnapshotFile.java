@@ -0,0 +1,135 @@
+package edu.sjsu.cmpe172;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Last confirmed leader and peer set, kept in a small memory-mapped file
+ * Saving is a memory copy into the mapping (the OS writes it back, it survives a process crash),
+ * loading at startup is one read of the mapping, so a restarted node can answer GET /leader before ZooKeeper does.
+ * Layout: magic, payload length, CRC32 of the payload, payload = confirmedAt, leader, peer count, peer IDs.
+ * The magic is cleared first and written last, so a save cut short is rejected on load.
+ */
+final class StateSnapshotFile {
+    private static final int MAGIC = 0x4c445331;   // "LDS1"
+    private static final int SIZE = 64 * 1024;     // Room for a few thousand peer IDs
+    private static final int HEADER = 12;
+
+    private final MappedByteBuffer buffer;
+
+    private StateSnapshotFile(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    static StateSnapshotFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            return new StateSnapshotFile(channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE));
+        }
+    }
+
+    /**
+     * What the file holds, null if it is new, torn or from something else
+     */
+    synchronized Saved load() {
+        if (buffer.getInt(0) != MAGIC) {
+            return null;
+        }
+        int length = buffer.getInt(4);
+        if (length < 0 || length > SIZE - HEADER) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        buffer.get(HEADER, payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != buffer.getInt(8)) {
+            return null;
+        }
+        try {
+            ByteBuffer in = ByteBuffer.wrap(payload);
+            long confirmedAt = in.getLong();
+            String leader = readString(in);
+            int count = in.getInt();
+            List<String> peers = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                peers.add(readString(in));
+            }
+            return new Saved(confirmedAt, leader, peers);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Replace the contents; false if it doesn't fit (the old contents are gone then)
+     */
+    synchronized boolean save(long confirmedAt, String leader, List<String> peers) {
+        ByteBuffer out = ByteBuffer.allocate(SIZE - HEADER);
+        try {
+            out.putLong(confirmedAt);
+            writeString(out, leader);
+            out.putInt(peers.size());
+            for (String peer : peers) {
+                writeString(out, peer);
+            }
+        } catch (BufferOverflowException e) {
+            buffer.putInt(0, 0);
+            return false;
+        }
+        byte[] payload = new byte[out.position()];
+        out.flip().get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        buffer.putInt(0, 0);
+        buffer.put(HEADER, payload);
+        buffer.putInt(4, payload.length);
+        buffer.putInt(8, (int) crc.getValue());
+        buffer.putInt(0, MAGIC);
+        return true;
+    }
+
+    private static void writeString(ByteBuffer out, String value) {
+        if (value == null) {
+            out.putShort((short) -1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.putShort((short) bytes.length);
+        out.put(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Contents of the file
+    static final class Saved {
+        final long confirmedAt;   // Last time the view was confirmed live (ms since epoch)
+        final String leader;
+        final List<String> peers;
+
+        Saved(long confirmedAt, String leader, List<String> peers) {
+            this.confirmedAt = confirmedAt;
+            this.leader = leader;
+            this.peers = List.copyOf(peers);
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package edu.sjsu.cmpe172;
+
+public enum WatchMode {         // reference: https://zookeeper.apache.org/doc/r3.6.0/zookeeperProgrammers.html#sc_WatchPersistentRecursive
+    ONE_SHOT,   // Classic watches, re-armed by the read that handles each event
+    PERSISTENT  // One persistent recursive watch on the namespace root, never re-armed
+}
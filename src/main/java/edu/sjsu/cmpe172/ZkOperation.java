@@ -0,0 +1,12 @@
+package edu.sjsu.cmpe172;
+
+public enum ZkOperation {       // One timer per value (and per result), see ZooKeeperMetrics
+    CREATE,
+    DELETE,
+    EXISTS,
+    GET_DATA,
+    SET_DATA,
+    GET_CHILDREN,
+    MULTI,
+    ADD_WATCH
+}
@@ -0,0 +1,154 @@
+package edu.sjsu.cmpe172;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Micrometer meters for ZooKeeperService, shown under /actuator/metrics
+ * Every meter is registered up front; recording is an array/EnumMap lookup plus Timer.record(nanos),
+ * so the ZK event thread never allocates (no Timer.Sample, no tag lookups) on the hot path
+ *
+ * zk.operation{op,result}       latency of each async ZK call, request to callback
+ * zk.event.processing{type}     time spent in process() per watch event
+ * zk.session.state{state}       session state transitions seen by the watcher
+ * election.leaderless           leader lost -> some leader seen again (every node records it)
+ * election.time.to.leader       leader lost -> this node is leading (only the winner records it)
+ * election.waiting              how long each WAITING stint lasted
+ * election.leadership{change}   gained/lost leadership (flaps)
+ * election.peers                peers currently known
+ */
+@Component                  // reference: https://docs.spring.io/spring-boot/reference/actuator/metrics.html
+public class ZooKeeperMetrics {
+    // Result tag values; NONODE/NODEEXISTS are everyday answers here (no leader yet, path exists), not failures
+    private static final String[] RESULTS = {"ok", "nonode", "nodeexists", "error"};
+    private static final int OK = 0, NONODE = 1, NODEEXISTS = 2, ERROR = 3;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    private final Timer[][] operationTimers = new Timer[ZkOperation.values().length][RESULTS.length];
+    private final Map<EventType, Timer> eventTimers = new EnumMap<>(EventType.class);
+    private final Map<KeeperState, Counter> sessionStates = new EnumMap<>(KeeperState.class);
+    private final AtomicInteger peerCount = new AtomicInteger();
+    private Timer leaderlessTimer;
+    private Timer timeToLeaderTimer;
+    private Timer waitingTimer;
+    private Counter leadershipGained;
+    private Counter leadershipLost;
+
+    // Only touched from ZooKeeperService.publishState(), which holds the service lock
+    private long leaderLostAt;      // When the leader went away (0 = there is one, or never lost)
+    private long waitingSince;      // When the current WAITING stint started (0 = not waiting)
+
+    @PostConstruct
+    public void init() {
+        for (ZkOperation op : ZkOperation.values()) {
+            for (int result = 0; result < RESULTS.length; result++) {
+                operationTimers[op.ordinal()][result] = Timer.builder("zk.operation")
+                        .description("ZooKeeper async call latency, request to callback")
+                        .tag("op", op.name().toLowerCase())
+                        .tag("result", RESULTS[result])
+                        .register(registry);
+            }
+        }
+        for (EventType type : EventType.values()) {
+            eventTimers.put(type, Timer.builder("zk.event.processing")
+                    .description("Time spent handling one watch event")
+                    .tag("type", type.name())
+                    .register(registry));
+        }
+        for (KeeperState state : KeeperState.values()) {
+            sessionStates.put(state, Counter.builder("zk.session.state")
+                    .description("Session state transitions")
+                    .tag("state", state.name())
+                    .register(registry));
+        }
+        leaderlessTimer = Timer.builder("election.leaderless")
+                .description("From losing the leader until a leader is known again")
+                .register(registry);
+        timeToLeaderTimer = Timer.builder("election.time.to.leader")
+                .description("From losing the leader until this node took over")
+                .register(registry);
+        waitingTimer = Timer.builder("election.waiting")
+                .description("Time spent in WAITING")
+                .register(registry);
+        leadershipGained = Counter.builder("election.leadership").tag("change", "gained").register(registry);
+        leadershipLost = Counter.builder("election.leadership").tag("change", "lost").register(registry);
+        registry.gauge("election.peers", peerCount);
+        waitingSince = System.nanoTime();   // Every node starts out WAITING
+    }
+
+    /**
+     * Record one ZK call; startNanos is System.nanoTime() taken just before it was sent
+     */
+    public void recordOperation(ZkOperation op, long startNanos, int rc) {
+        int result;
+        if (rc == Code.OK.intValue()) {
+            result = OK;
+        } else if (rc == Code.NONODE.intValue()) {
+            result = NONODE;
+        } else if (rc == Code.NODEEXISTS.intValue()) {
+            result = NODEEXISTS;
+        } else {
+            result = ERROR;
+        }
+        operationTimers[op.ordinal()][result].record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordEvent(EventType type, long startNanos) {
+        eventTimers.get(type).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordSessionState(KeeperState state) {
+        sessionStates.get(state).increment();
+    }
+
+    /**
+     * Compare two consecutive snapshots and record the election timings they imply
+     */
+    public void recordStateChange(ClusterState previous, ClusterState next) {
+        long now = System.nanoTime();
+        peerCount.set(next.getPeers().size());
+
+        // Leader loss only counts while connected; an expired session drops the leader too, but that's my problem
+        if (previous.getCurrentLeader() != null && next.getCurrentLeader() == null
+                && next.getZkStatus() == ZooKeeperStatus.CONNECTED && leaderLostAt == 0) {
+            leaderLostAt = now;
+        } else if (next.getCurrentLeader() != null && leaderLostAt != 0) {
+            leaderlessTimer.record(now - leaderLostAt, TimeUnit.NANOSECONDS);
+            if (next.getLeaderStatus() == LeaderStatus.LEADING) {
+                timeToLeaderTimer.record(now - leaderLostAt, TimeUnit.NANOSECONDS);
+            }
+            leaderLostAt = 0;
+        }
+
+        LeaderStatus before = previous.getLeaderStatus();
+        LeaderStatus after = next.getLeaderStatus();
+        if (before == after) {
+            return;
+        }
+        if (after == LeaderStatus.WAITING) {
+            waitingSince = now;
+        } else if (before == LeaderStatus.WAITING && waitingSince != 0) {
+            waitingTimer.record(now - waitingSince, TimeUnit.NANOSECONDS);
+            waitingSince = 0;
+        }
+        if (after == LeaderStatus.LEADING) {
+            leadershipGained.increment();
+        } else if (before == LeaderStatus.LEADING) {
+            leadershipLost.increment();
+        }
+    }
+}
@@ -1,8 +1,16 @@
 package edu.sjsu.cmpe172;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.apache.zookeeper.*;
+import org.apache.zookeeper.KeeperException.Code;
 import org.apache.zookeeper.data.Stat;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,16 +18,30 @@ import org.slf4j.LoggerFactory;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 
 /**
  * ZooKeeper Service - Handles leader election stuff
  * Basically connects to ZK and tries to become the leader
  * If can't become leader, just waits and tries again when leader dies
+ * All ZK calls are async; whatever changes gets published as one immutable ClusterState
  */
 @Service
 public class ZooKeeperService implements Watcher {
@@ -45,144 +67,515 @@ public class ZooKeeperService implements Watcher {
 
     @Value("${zookeeper.connection.timeout:5000}")
     // Connection timeout, default 5000 milliseconds
+    // A client that hasn't connected by then is thrown away and rebuilt (with backoff)
     private int connectionTimeout;
 
+    @Value("${election.mode:SEQUENTIAL}")
+    // RACE: every waiting node races to create /leader when it disappears
+    // SEQUENTIAL: candidates form a queue and each one only watches its predecessor
+    private ElectionMode electionMode;
+
+    @Value("${zookeeper.watch.mode:ONE_SHOT}")
+    // ONE_SHOT: classic watches, re-armed on every event
+    // PERSISTENT: one persistent recursive watch on the namespace root (ZK 3.6+); use it with a namespace,
+    // without one it watches the whole ZooKeeper tree
+    private WatchMode watchMode;
+
+    @Value("${zookeeper.recovery.initial-backoff:100}")
+    // First retry delay after a failed session rebuild (ms); the very first rebuild is immediate
+    private long recoveryInitialBackoff;
+
+    @Value("${zookeeper.recovery.max-backoff:10000}")
+    // Retry delay doubles up to this cap (ms)
+    private long recoveryMaxBackoff;
+
+    @Value("${zookeeper.membership.coalesce-window:50}")
+    // Peer events within this window (ms) are folded into one membership refresh
+    // A rolling restart then costs a handful of refreshes instead of one full re-read per event
+    private long membershipCoalesceWindow;
+
+    @Value("${server.port:8080}")
+    // Advertised in my peer node so others can reach my HTTP API
+    private int serverPort;
+
+    @Value("${peer.advertised-host:}")
+    // Host name other nodes should use for me; empty = this machine's address
+    private String advertisedHost;
+
+    @Value("${leader.transfer.timeout:5000}")
+    // How long the chosen peer gets to take over before a transfer is called off (ms)
+    private long transferTimeout;
+
+    @Value("${election.leader-recheck-interval:50}")
+    // SEQUENTIAL candidates behind the head don't watch /leader; after reading "no leader" they look again this soon (ms)
+    private long leaderRecheckInterval;
+
+    @Value("${election.priority:0}")
+    // Published in my peer node; the leader hands over to a live candidate with a higher one
+    private int priority;
+
+    @Value("${zookeeper.read-only:true}")
+    // Keep reading from a server that lost its quorum (CONNECTED_READ_ONLY) instead of seeing nothing;
+    // the servers need readonlymode.enabled=true for that
+    private boolean canBeReadOnly;
+
+    @Value("${leader.snapshot.file:}")
+    // Memory-mapped file holding the last confirmed leader and peers, shown (as stale) until ZK answers; empty = off
+    private String snapshotFile;
+
+    @Autowired
+    private ObjectMapper objectMapper;   // Encodes/decodes peer node data
+
+    @Autowired
+    private ZooKeeperMetrics metrics;    // Timers/counters for /actuator/metrics
+
     private String PEERS_PATH;   // Store the paths of all nodes
     private String LEADER_PATH;  // Storage Leader Path
+    private String ELECTION_PATH; // Candidate queue used by SEQUENTIAL mode
+    private String HANDOFF_PATH;  // Transfer offer: the leader's ephemeral node naming the peer that should take over
+    private List<String> parentPaths; // Every persistent path bootstrap needs, parents first
+    private String WATCH_ROOT;   // Namespace root, where the persistent recursive watch goes
+    private String namespacePath; // "/" + zkNamespace, or "" without one
 
-    private ZooKeeper zooKeeper; // ZooKeeper client object, used to communicate with the ZooKeeper server.
+    private volatile ZooKeeper zooKeeper; // ZooKeeper client object, used to communicate with the ZooKeeper server.
+    private int sessionGeneration;   // Bumped for every new client, so callbacks from a dead session can be told apart
+    private boolean bootstrapped;    // Has the current session run bootstrap() yet?
+    private boolean sessionConnected; // Has the current client ever reached SyncConnected?
+    private boolean leaderChecked;   // Has this session read /leader at least once? (part of readiness)
+    private long nextRecoveryDelay;  // 0 = rebuild right away, then grows with each failure
+    private long bootstrapStartNanos; // When this session's bootstrap started
+    private int bootstrapRoundTrips;  // Sequential round trips spent until ready
+    private boolean bootstrapReported; // Already logged the numbers for this session
     private String myId;         // my ID
     private String currentLeader;  // Current leader's ID
-    private List<String> peers = Collections.emptyList();   // list of all nodes
+    private List<String> peers = Collections.emptyList();   // list of all nodes (sorted, read-only, from membership)
+    private final PeerMembership membership = new PeerMembership();   // Sorted peer set, changed by deltas
+    private boolean membershipRefreshPending; // A coalesced refresh is already scheduled
+    private String myHost;            // Advertised host, looked up once
+    private double reportedCpu = -1;  // Latest load from reportLoad() (-1 = not measured yet)
+    private int reportedQueueDepth;
+    private double publishedCpu = -1; // Load as last written into my peer node
+    private int publishedQueueDepth;
+    private final Map<String, PeerInfo> peerInfo = new HashMap<>();   // Working metadata cache, peer ID -> info
+    private Map<String, PeerInfo> peerDetails = Map.of();   // Read-only copy of peerInfo for the snapshot
+    private boolean peerDetailsDirty; // peerInfo changed since the last copy
+    private int peerReadsInFlight;    // Outstanding peer getData() calls of this session
     private LeaderStatus leaderStatus = LeaderStatus.WAITING;    // Improtant fix! Make initial status as WAITING
     private ZooKeeperStatus zkStatus = ZooKeeperStatus.DISCONNECTED;    // Connection status, initially disconnected
+    private String myCandidatePath;   // My node in the candidate queue (SEQUENTIAL mode only)
+    private String predecessorPath;   // The candidate just ahead of me (null when at the head or not checked yet)
+    private boolean atHead;           // My candidate node is the lowest one
+    private boolean queuePositionKnown; // A queue check finished: either atHead, or predecessorPath is confirmed
+    private boolean leaderRecheckPending; // A /leader re-read is scheduled (candidates behind the head)
+    private boolean joiningQueue;     // A candidate create is in flight, don't send a second one
 
     // IMPORTANT FIX! Changed to true so nodes automatically compete for leadership
     // Was false before which caused no one to compete = no leader elected
     private boolean wantsToLead = true;  // Do I want to be leader?
 
-    // Used to wait for a successful connection 
-    // The initial value is 1. Calling await() will block. After calling countDown(), the value becomes 0, and await() will unblock.
-    private final CountDownLatch connectedSignal = new CountDownLatch(1);
+    private long leaderToken;         // czxid of my /leader node while LEADING (0 = none)
+    private boolean leaseRenewalScheduled; // A renewal is already waiting on zkExecutor
+    private final LeadershipLease lease = new LeadershipLease();   // Hot-path leadership check, see LeadershipLease
+    private String handoffTarget;     // Leader side: peer my leadership is being handed to (null = no transfer)
+    private CompletableFuture<String> handoffResult;   // Completed when the transfer is done or called off
+    private boolean handoffSeen;      // A /handoff node exists (PERSISTENT mode: so a /leader delete is a swap)
+    private StateSnapshotFile snapshot;   // null when leader.snapshot.file is empty or can't be opened
+    private String confirmedLeader;   // Leader and peers of the last ready snapshot (or from the file)
+    private List<String> confirmedPeers = Collections.emptyList();
+    private long confirmedAt;         // When they were last known to be live (ms since epoch, 0 = never)
+    private boolean confirmedLive;    // The published snapshot is ready, so they are live right now
+
+    // What the rest of the application sees, swapped in one piece by publishState()
+    private final AtomicReference<ClusterState> state = new AtomicReference<>(
+            new ClusterState(0, false, leaderStatus, zkStatus, null, null, null, peers, peerDetails));
+
+    // Told about every new snapshot (SSE broadcaster etc.); called with the lock held, so they must not block
+    private final List<Consumer<ClusterState>> stateListeners = new CopyOnWriteArrayList<>();
+
+    // Told about each coalesced joined/left delta, same rules as above
+    private final List<MembershipListener> membershipListeners = new CopyOnWriteArrayList<>();
+
+    // Components that run their own elections/reads on this session, same rules as above
+    private final List<SessionListener> sessionListeners = new CopyOnWriteArrayList<>();
+
+    // Runs the first connect, connection timeouts, session rebuilds and bootstrap retries, never the ZK event thread
+    private final ScheduledExecutorService zkExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "zk-background");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
      * Spring calls this automatically on startup
-     * Sets up paths and connects to ZK
+     * Sets up paths only; connecting waits for start() so the context never blocks on ZK
      */
     @PostConstruct                           // reference: https://docs.spring.io/spring-framework/reference/core/beans/annotation-config/postconstruct-and-predestroy-annotations.html
     // Create a new object → inject @Value → call the @PostConstruct method
-    public void init() throws IOException, InterruptedException, KeeperException {
-        // Initialization method: Connect to ZooKeeper
+    public void init() {
+        // Initialization method: work out the ZooKeeper paths
         // Build path
         // If a namespace exists: prefix = "/my-app"
         // If no namespace exists: prefix = ""
         String prefix = (zkNamespace != null && !zkNamespace.isEmpty()) ? "/" + zkNamespace : "";
+        namespacePath = prefix;
         PEERS_PATH = prefix + "/peers";   // Store all nodes
         LEADER_PATH = prefix + "/leader"; // Store leader information
+        ELECTION_PATH = prefix + "/election"; // Candidate queue
+        HANDOFF_PATH = prefix + "/handoff";   // Leadership transfer offer
+        WATCH_ROOT = prefix.isEmpty() ? "/" : prefix;
+
+        // Namespace segments first ("/a", "/a/b"), then the directories under it
+        parentPaths = new ArrayList<>();
+        for (int i = prefix.indexOf('/', 1); i > 0; i = prefix.indexOf('/', i + 1)) {
+            parentPaths.add(prefix.substring(0, i));
+        }
+        if (!prefix.isEmpty()) {
+            parentPaths.add(prefix);
+        }
+        parentPaths.add(PEERS_PATH);
+        if (electionMode == ElectionMode.SEQUENTIAL) {
+            parentPaths.add(ELECTION_PATH);
+        }
 
         //output log
         logger.info("Initializing ZooKeeper connection to: {}", zkConnectString);
         logger.info("Using namespace: {}", zkNamespace != null && !zkNamespace.isEmpty() ? zkNamespace : "(none)");
         logger.info("Peers path: {}, Leader path: {}", PEERS_PATH, LEADER_PATH);
-        // Connect to ZooKeeper
-        connect();
+        logger.info("Election mode: {}, watch mode: {}", electionMode, watchMode);
+        if (watchMode == WatchMode.PERSISTENT && prefix.isEmpty()) {
+            logger.warn("Persistent watch without a namespace covers the whole ZooKeeper tree");
+        }
+        loadSnapshot();
+    }
+
+    /**
+     * Map the snapshot file and start out showing what it holds, flagged stale
+     * GET /leader then has a last known leader from the first request on, not only once ZooKeeper answers
+     */
+    private synchronized void loadSnapshot() {
+        if (snapshotFile == null || snapshotFile.isEmpty()) {
+            return;
+        }
+        try {
+            snapshot = StateSnapshotFile.open(Path.of(snapshotFile));
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Can't open snapshot file {}, running without one", snapshotFile, e);
+            return;
+        }
+        StateSnapshotFile.Saved saved = snapshot.load();
+        if (saved == null) {
+            logger.info("No usable snapshot in {}", snapshotFile);
+            return;
+        }
+        confirmedLeader = saved.leader;
+        confirmedPeers = saved.peers;
+        confirmedAt = saved.confirmedAt;
+        logger.info("Last confirmed leader from {}: {} ({} peers, {} ms ago)", snapshotFile, confirmedLeader,
+                confirmedPeers.size(), System.currentTimeMillis() - confirmedAt);
+        state.set(new ClusterState(0, false, leaderStatus, zkStatus, confirmedLeader, null, myDescription,
+                confirmedPeers, Map.of(), true, confirmedAt));
+    }
+
+    private void saveSnapshot() {
+        if (snapshot != null && !snapshot.save(confirmedAt, confirmedLeader, confirmedPeers)) {
+            logger.warn("Peer list too large for the snapshot file, not saved");
+        }
+    }
+
+    /**
+     * Connect to ZooKeeper once the application is up
+     * The web tier is already serving by now (GET /leader just reports not ready)
+     */
+    @EventListener(ApplicationReadyEvent.class)                // reference: https://docs.spring.io/spring-boot/reference/features/spring-application.html#features.spring-application.application-events-and-listeners
+    public void start() {
+        // DNS lookups in the ZooKeeper constructor can be slow too, so even that runs in the background
+        zkExecutor.execute(this::connect);
     }
 
     /**
      * Main connection logic
      * 1. Create ZK client
-     * 2. Wait for connection success
-     * 3. Create necessary paths
-     * 4. Register myself as a peer
-     * 5. Start watching for leader
+     * 2. Give it connectionTimeout to connect, otherwise rebuild it
+     * The SyncConnected event then kicks off the async bootstrap chain (paths -> peer -> peers list + leader)
+     */
+    private void connect() {           // reference: https://www.baeldung.com/java-zookeeper
+        try {
+            if (myHost == null) {
+                // Host lookup may hit DNS, so it's done here and not in init()
+                myHost = lookUpHost();
+            }
+            // Create a ZooKeeper client
+            newClient();
+        } catch (IOException e) {
+            logger.error("Error creating ZooKeeper client", e);
+            scheduleRecovery();
+        }
+    }
+
+    private synchronized void newClient() throws IOException {
+        sessionGeneration++;
+        bootstrapped = false;   // The first SyncConnected of this client will bootstrap
+        sessionConnected = false;
+        leaderChecked = false;
+        zooKeeper = new ZooKeeper(zkConnectString, sessionTimeout, this, canBeReadOnly);          // reference: https://zookeeper.apache.org/doc/r3.4.6/api/org/apache/zookeeper/ZooKeeper.html
+
+        int session = sessionGeneration;
+        zkExecutor.schedule(() -> checkConnected(session), connectionTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Enforce zookeeper.connection.timeout
+     * A client still not connected is closed and rebuilt through the normal recovery backoff
+     */
+    private void checkConnected(int session) {
+        synchronized (this) {
+            if (session != sessionGeneration || sessionConnected) {
+                return;   // Connected in time (or already replaced)
+            }
+        }
+        logger.warn("Could not connect to ZooKeeper within {} ms", connectionTimeout);
+        scheduleRecovery();
+    }
+
+    /**
+     * Async bootstrap, batched to cut round trips
+     * Everything goes out in one pipelined batch; ZK answers a session's requests in order, so:
+     * 1. Parent paths are created speculatively as CONTAINER nodes ("already exists" is fine, no exists() first)
+     * 2. My peer node (and candidate node, if I want to lead) are created in one multi()
+     * 3. The peers list and the leader are read, already seeing the nodes created above
+     * SEQUENTIAL mode then needs one more round trip to find my place in the queue.
+     * If a step fails, the whole batch is retried with backoff (only while the same session is alive)
      */
-    private void connect() throws IOException, InterruptedException, KeeperException {           // reference: https://www.baeldung.com/java-zookeeper
-        // Create a ZooKeeper client
-        zooKeeper = new ZooKeeper(zkConnectString, sessionTimeout, this);                        // reference: https://zookeeper.apache.org/doc/r3.4.6/api/org/apache/zookeeper/ZooKeeper.html
+    private synchronized void bootstrap() {
+        int session = sessionGeneration;
+        bootstrapStartNanos = System.nanoTime();
+        bootstrapRoundTrips = 0;
+        bootstrapReported = false;
+        noteRoundTrip();   // Everything below is one batch
 
-        // Wait for connection
-        connectedSignal.await();
+        if (watchMode == WatchMode.PERSISTENT) {
+            // One watch for everything under the namespace, set before any read so nothing slips between
+            addPersistentWatch();
+        }
 
         // Create root paths if they don't exist
-        createPathIfNotExists(PEERS_PATH);
-        // Ensure the peers path exists
-        
-        // Register myself as a node
-        registerAsPeer();
-        // Create a temporary sequential node under /peers
+        long start = System.nanoTime();   // One batch, so one start time for all of it
+        for (String parent : parentPaths) {
+            zooKeeper.create(parent,                     // Path
+                             new byte[0],              // Data (empty)
+                             ZooDefs.Ids.OPEN_ACL_UNSAFE,  // Permissions (Fully Open)
+                             CreateMode.CONTAINER,      // Removed by the server once its last child is gone   // reference: https://zookeeper.apache.org/doc/r3.6.0/zookeeperProgrammers.html#Container+Nodes
+                             (rc, path, ctx, name) -> {
+                                 metrics.recordOperation(ZkOperation.CREATE, start, rc);
+                                 onParentCreated(rc, path);
+                             },
+                             null);
+        }
+
+        // Register myself as a node (and join the candidate queue) atomically
+        List<Op> ops = new ArrayList<>();
+        ops.add(registerAsPeer());
+        if (electionMode == ElectionMode.SEQUENTIAL && wantsToLead) {
+            // My peer ID isn't known yet, so the candidate node gets it in a setData() right after
+            ops.add(Op.create(ELECTION_PATH + "/candidate-", new byte[0],
+                    ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL));
+            joiningQueue = true;
+        }
+        zooKeeper.multi(ops, (rc, path, ctx, results) -> {
+            metrics.recordOperation(ZkOperation.MULTI, start, rc);
+            onRegistered(rc, results, session);
+        }, null);   // reference: https://zookeeper.apache.org/doc/r3.6.0/apidocs/zookeeper-server/org/apache/zookeeper/ZooKeeper.html#multi-java.lang.Iterable-org.apache.zookeeper.AsyncCallback.MultiCallback-java.lang.Object-
 
         // Update node list
         updatePeersList();
         // Get all nodes and set up a listener
-
-        // Watch leader
         watchLeader();
-        // Check if there is a leader; if not, try to become a leader.
-    }
-
-    /**
-     * Recursively create path if it doesn't exist
-     * ZK doesn't auto-create parent paths, so gotta do it layer by layer
-     */
-    private void createPathIfNotExists(String path) throws KeeperException, InterruptedException {    // reference:https://ishan-aggarwal.medium.com/leader-election-distributed-systems-c026cf5afb86
-        // Create the path (if it does not exist)
-
-        // Check if the path exists
-        Stat stat = zooKeeper.exists(path, false);             // reference:https://zookeeper.apache.org/doc/r3.4.6/api/org/apache/zookeeper/ZooKeeper.html
-        // Parameters:
-        // path: Path
-        // false: Do not set a listener
-        // Return value: Returns a Stat object if it exists, otherwise returns null.
-        if (stat == null) {
-            // The path does not exist, create it.
-            try {                                                                // reference: https://zookeeper.apache.org/doc/r3.1.2/zookeeperTutorial.html
-                zooKeeper.create(path,                     // Path 
-                                 new byte[0],              // Data (empty)
-                                 ZooDefs.Ids.OPEN_ACL_UNSAFE,  // Permissions (Fully Open)
-                                 CreateMode.PERSISTENT      // Node type (persistent node)
-                                );      
-                // Will not be automatically deleted
-                // Suitable for creating directories
-                logger.info("Created path: {}", path);
-            } catch (KeeperException.NodeExistsException e) {                    // reference: https://zookeeper.apache.org/doc/r3.1.2/zookeeperTutorial.html
-                // Another node created it, that's fine
-                logger.debug("Path already exists: {}", path);
-            } catch (KeeperException.NoNodeException e) {
-                // Parent path doesn't exist, create it first
-                String parentPath = path.substring(0, path.lastIndexOf('/'));
-                if (parentPath.length() > 0) {
-                    // Recursively create parent paths
-                    createPathIfNotExists(parentPath);
-                    // Then create the current path
-                    createPathIfNotExists(path);
-                } else {
-                    throw e;   // Root path error, throws exception
-                }
-            }
-        }
+        // Transfer offers (only the named peer acts on one)
+        watchHandoff();
+        // Check if there is a leader; answered after the multi above, so myId is known by then
     }
 
     /**
-     * Register myself as a peer node
+     * Register myself as a peer node (the op, sent as part of the bootstrap multi)
      * Uses EPHEMERAL_SEQUENTIAL mode:
      * - EPHEMERAL: Temp node, auto-deleted when I disconnect
      * - SEQUENTIAL: ZK auto-appends a number suffix
      */
-    private void registerAsPeer() throws KeeperException, InterruptedException {              // reference: https://zookeeper.apache.org/doc/r3.1.2/zookeeperTutorial.html
-        // Register as a node in the cluster
-        String peerPath = zooKeeper.create(
+    private Op registerAsPeer() {              // reference: https://zookeeper.apache.org/doc/r3.1.2/zookeeperTutorial.html
+        return Op.create(
                 PEERS_PATH + "/peer-",            // path prefix
-                myDescription.getBytes(StandardCharsets.UTF_8),    // Data: Node Description
+                encodePeerData(),                  // Data: Node Description + where to reach me + priority/load (JSON)
                 ZooDefs.Ids.OPEN_ACL_UNSAFE,       // Permissions
-                CreateMode.EPHEMERAL_SEQUENTIAL    // Key: Temporary Sequential Nodes
-        );
+                CreateMode.EPHEMERAL_SEQUENTIAL);  // Key: Temporary Sequential Nodes
         // CreateMode.EPHEMERAL_SEQUENTIAL: Temporary Sequential Node
         // EPHEMERAL: Automatically deleted when the client disconnects
         // SEQUENTIAL: ZooKeeper automatically adds an incrementing sequence number
+    }
+
+    private String lookUpHost() {
+        if (advertisedHost != null && !advertisedHost.isEmpty()) {
+            return advertisedHost;
+        }
+        try {
+            return InetAddress.getLocalHost().getHostAddress();
+        } catch (IOException e) {
+            logger.warn("Could not look up local address, advertising localhost", e);
+            return "localhost";
+        }
+    }
+
+    /**
+     * My peer node's JSON: description, host/port, priority, candidacy and (once measured) load
+     * Every peer reads it once when I join and keeps it in memory, so GET /leader?details=true never goes to ZK
+     */
+    private synchronized byte[] encodePeerData() {
+        ObjectNode node = objectMapper.createObjectNode()
+                .put("description", myDescription)
+                .put("host", myHost)
+                .put("port", serverPort)
+                .put("priority", priority)
+                .put("candidate", wantsToLead);
+        if (reportedCpu >= 0) {
+            node.put("cpu", Math.round(reportedCpu * 100) / 100.0)
+                    .put("queueDepth", reportedQueueDepth);
+        }
+        publishedCpu = reportedCpu;
+        publishedQueueDepth = reportedQueueDepth;
+        try {
+            return objectMapper.writeValueAsBytes(node);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not encode peer data", e);   // Can't happen for a plain ObjectNode
+        }
+    }
+
+    /**
+     * Latest load of this node (LeaderPlacement calls this at a fixed rate)
+     * My peer node is only rewritten when the load moved noticeably: every rewrite is a read on every other peer,
+     * so small jitter stays local. CPU has to move by 0.1, queue depth by a power of two.
+     */
+    synchronized void reportLoad(double cpu, int queueDepth) {
+        reportedCpu = cpu;
+        reportedQueueDepth = queueDepth;
+        boolean changed = cpu >= 0 && (publishedCpu < 0
+                || Math.abs(cpu - publishedCpu) >= 0.1
+                || Integer.highestOneBit(queueDepth) != Integer.highestOneBit(publishedQueueDepth));
+        if (changed) {
+            rewritePeerData();
+        }
+    }
+
+    /**
+     * Put fresh priority/candidacy/load into my peer node; others pick it up through their data watch
+     * Without a peer node the new values simply go into the next registration
+     */
+    private synchronized void rewritePeerData() {
+        if (myId == null || zkStatus != ZooKeeperStatus.CONNECTED) {
+            return;
+        }
+        long start = System.nanoTime();
+        zooKeeper.setData(PEERS_PATH + "/" + myId, encodePeerData(), -1, (rc, path, ctx, stat) -> {
+            metrics.recordOperation(ZkOperation.SET_DATA, start, rc);
+            if (rc != Code.OK.intValue() && rc != Code.NONODE.intValue()) {
+                // NONODE: the session is going away, the next registration writes the data
+                logger.error("Error updating peer data", KeeperException.create(Code.get(rc), path));
+            }
+        }, null);
+    }
+
+    /**
+     * Persistent recursive watch on the namespace root                 // reference: https://zookeeper.apache.org/doc/r3.6.0/apidocs/zookeeper-server/org/apache/zookeeper/AddWatchMode.html
+     * Delivers NodeCreated / NodeDeleted / NodeDataChanged for every node below it and stays armed,
+     * there are no NodeChildrenChanged events in this mode
+     */
+    private void addPersistentWatch() {
+        long start = System.nanoTime();
+        zooKeeper.addWatch(WATCH_ROOT, this, AddWatchMode.PERSISTENT_RECURSIVE, (rc, path, ctx) -> {
+            metrics.recordOperation(ZkOperation.ADD_WATCH, start, rc);
+            if (rc != Code.OK.intValue()) {
+                logger.error("Error adding persistent watch", KeeperException.create(Code.get(rc), path));
+            }
+        }, null);
+    }
+
+    /**
+     * The watcher to pass to reads: me in ONE_SHOT mode, nobody in PERSISTENT mode (the root watch covers it)
+     */
+    private Watcher oneShotWatcher() {
+        return watchMode == WatchMode.ONE_SHOT ? this : null;
+    }
+
+    private void onParentCreated(int rc, String path) {
+        if (rc == Code.OK.intValue()) {
+            logger.info("Created path: {}", path);
+        } else if (rc == Code.NODEEXISTS.intValue()) {
+            // Another node created it, that's fine (the normal case)
+            logger.debug("Path already exists: {}", path);
+        } else {
+            // The multi behind it fails as well and retries the whole batch
+            logger.error("Error creating path", KeeperException.create(Code.get(rc), path));
+        }
+    }
+
+    private synchronized void onBootstrapFailed(int session) {
+        if (session != sessionGeneration) {
+            return;   // That session is gone, the new one has its own bootstrap
+        }
+        long delay = nextBackoff();
+        logger.warn("Bootstrap failed, retrying in {} ms", delay);
+        zkExecutor.schedule(() -> {
+            synchronized (this) {
+                if (session == sessionGeneration) {
+                    bootstrap();
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
 
+    /**
+     * Result of the registration multi
+     * Results come back in op order: [peer node, candidate node (if any)]
+     */
+    private synchronized void onRegistered(int rc, List<OpResult> results, int session) {
+        if (session != sessionGeneration) {
+            return;   // Answer from a session that has since expired
+        }
+        if (rc != Code.OK.intValue()) {
+            joiningQueue = false;
+            logger.error("Error registering as peer", KeeperException.create(Code.get(rc), PEERS_PATH));
+            onBootstrapFailed(session);
+            return;
+        }
         // Extract the peer ID from the full path
+        String peerPath = ((OpResult.CreateResult) results.get(0)).getPath();
         myId = peerPath.substring(PEERS_PATH.length() + 1);
         logger.info("Registered as peer: {}", myId);
+        nextRecoveryDelay = 0;   // This session is healthy, start the backoff over next time
+
+        if (results.size() > 1) {
+            joiningQueue = false;
+            myCandidatePath = ((OpResult.CreateResult) results.get(1)).getPath();
+            logger.info("Joined candidate queue as: {}", myCandidatePath);
+            if (!wantsToLead) {
+                // stopLeading() came in while the multi was in flight
+                leaveCandidateQueue();
+            } else {
+                // Label my candidate node and look at the queue, one round trip for the pair
+                noteRoundTrip();
+                long start = System.nanoTime();
+                zooKeeper.setData(myCandidatePath, myId.getBytes(StandardCharsets.UTF_8), -1,
+                        (dataRc, path, ctx, stat) -> {
+                            metrics.recordOperation(ZkOperation.SET_DATA, start, dataRc);
+                            if (dataRc != Code.OK.intValue() && dataRc != Code.NONODE.intValue()) {
+                                logger.error("Error labelling candidate node", KeeperException.create(Code.get(dataRc), path));
+                            }
+                        }, null);
+                checkCandidateQueue();
+            }
+        }
+        publishState();
+        for (SessionListener listener : sessionListeners) {
+            listener.onSessionStarted(zooKeeper, myId);   // Groups etc. join with the same peer ID
+        }
     }
 
     /**
@@ -190,82 +583,481 @@ public class ZooKeeperService implements Watcher {
      * Just checks how many nodes are under /peers
      */
     private void updatePeersList() {                      // reference: https://bikas-katwal.medium.com/zookeeper-introduction-designing-a-distributed-system-using-zookeeper-and-java-7f1b108e236e
-        // Update node list
-        try {
-            // Get all child nodes under peers
-            peers = zooKeeper.getChildren(PEERS_PATH, this);           // reference: https://zookeeper.apache.org/doc/r3.4.8/api/org/apache/zookeeper/ZooKeeper.html
-            // PEERS_PATH: Parent path
-            // this: Sets the listener (to notify me when there are changes)
-
-            // sort
-            Collections.sort(peers);
-            // Sorting makes it easier to view
-            
-            logger.info("Updated peers list: {}", peers);
-        } catch (KeeperException | InterruptedException e) {
+        // Get all child nodes under peers
+        long start = System.nanoTime();
+        zooKeeper.getChildren(PEERS_PATH, oneShotWatcher(),            // reference: https://zookeeper.apache.org/doc/r3.4.8/api/org/apache/zookeeper/ZooKeeper.html
+                (rc, path, ctx, children, stat) -> {
+                    metrics.recordOperation(ZkOperation.GET_CHILDREN, start, rc);
+                    onPeersList(rc, children);
+                }, null);
+        // PEERS_PATH: Parent path
+        // this: Sets the listener (to notify me when there are changes), PERSISTENT mode needs none
+    }
+
+    /**
+     * A peer event arrived: refresh once the window is over instead of right now
+     * ONE_SHOT: the watch is spent until the refresh re-arms it, so the rest of the burst costs nothing,
+     * and the single getChildren() that follows sees all of it
+     * PERSISTENT: the events themselves are buffered in membership and applied together
+     */
+    private synchronized void scheduleMembershipRefresh() {
+        if (membershipRefreshPending) {
+            return;   // This event rides along with the refresh already on its way
+        }
+        if (zkExecutor.isShutdown()) {
+            return;   // Shutting down, the closing client's last events don't matter
+        }
+        membershipRefreshPending = true;
+        int session = sessionGeneration;
+        zkExecutor.schedule(() -> refreshMembership(session), membershipCoalesceWindow, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void refreshMembership(int session) {
+        membershipRefreshPending = false;
+        if (session != sessionGeneration) {
+            return;   // Session gone, the new one reads the list in bootstrap
+        }
+        if (watchMode == WatchMode.ONE_SHOT) {
+            updatePeersList();   // One read (and one watch) for the whole burst
+        } else {
+            applyMembershipChange(membership.flush());
+        }
+    }
+
+    /**
+     * PERSISTENT mode: a peer node appeared, buffer it
+     */
+    private synchronized void onPeerJoined(String peer) {
+        membership.joined(peer);
+        scheduleMembershipRefresh();
+    }
+
+    /**
+     * PERSISTENT mode: a peer node went away
+     */
+    private synchronized void onPeerLeft(String peer) {
+        membership.left(peer);
+        scheduleMembershipRefresh();
+    }
+
+    private synchronized void onPeersList(int rc, List<String> children) {
+        if (rc != Code.OK.intValue()) {
             // An error occurred, log it.
-            logger.error("Error updating peers list", e);
+            logger.error("Error updating peers list", KeeperException.create(Code.get(rc), PEERS_PATH));
+            return;
+        }
+        // Diff against what I already have, only the difference gets applied
+        applyMembershipChange(membership.replaceAll(children));
+    }
+
+    /**
+     * Publish a membership delta: new sorted peer list, new snapshot, then the membership listeners
+     */
+    private synchronized void applyMembershipChange(MembershipChange change) {
+        if (change.isEmpty()) {
+            return;
+        }
+        peers = change.getMembers();
+        logger.info("Peers changed: +{} -{} ({} total)", change.getJoined(), change.getLeft(), peers.size());
+        for (String peer : change.getLeft()) {
+            peerDetailsDirty |= peerInfo.remove(peer) != null;
+        }
+        if (currentLeader != null && change.getLeft().contains(currentLeader) && !watchesLeader()) {
+            watchLeader();   // The leader is gone; candidates behind the head don't watch /leader
+        }
+        for (String peer : change.getJoined()) {
+            readPeerInfo(peer);   // Only the new ones, everyone else is already cached
+        }
+        copyPeerDetails();
+        publishState();
+        for (MembershipListener listener : membershipListeners) {
+            listener.onMembershipChange(change);
+        }
+    }
+
+    /**
+     * Read one peer's metadata; all reads of a burst go out pipelined
+     * ONE_SHOT mode also leaves a data watch, so a peer that rewrites its node gets re-read
+     */
+    private synchronized void readPeerInfo(String peer) {
+        int session = sessionGeneration;
+        peerReadsInFlight++;
+        long start = System.nanoTime();
+        zooKeeper.getData(PEERS_PATH + "/" + peer, oneShotWatcher(),
+                (rc, path, ctx, data, stat) -> {
+                    metrics.recordOperation(ZkOperation.GET_DATA, start, rc);
+                    onPeerData(rc, peer, data, stat, session);
+                }, null);
+    }
+
+    private synchronized void onPeerData(int rc, String peer, byte[] data, Stat stat, int session) {
+        if (session != sessionGeneration) {
+            return;   // The cache was cleared with that session
+        }
+        peerReadsInFlight--;
+        if (rc == Code.OK.intValue()) {
+            if (Collections.binarySearch(peers, peer) >= 0) {   // Not evicted while the read was in flight
+                PeerInfo info = parsePeerInfo(peer, data, stat);
+                PeerInfo old = peerInfo.put(peer, info);
+                peerDetailsDirty = true;
+                if (peer.equals(currentLeader) && old != null
+                        && !Objects.equals(old.getCandidate(), info.getCandidate()) && !watchesLeader()) {
+                    watchLeader();   // The leader stepped down (stopLeading rewrites its node)
+                }
+            }
+        } else if (rc != Code.NONODE.intValue()) {
+            // NONODE: it left again already, its leave evicts it
+            logger.error("Error reading peer data", KeeperException.create(Code.get(rc), PEERS_PATH + "/" + peer));
+        }
+        if (peerReadsInFlight == 0 && peerDetailsDirty) {
+            // Publish once per batch of reads, not once per peer
+            copyPeerDetails();
+            publishState();
+        }
+    }
+
+    /**
+     * Peer data is JSON written by encodePeerData(); older nodes wrote just their description
+     */
+    private PeerInfo parsePeerInfo(String peer, byte[] data, Stat stat) {
+        try {
+            JsonNode node = objectMapper.readTree(data);
+            if (node != null && node.isObject()) {
+                return new PeerInfo(peer,
+                        node.path("description").asText(null),
+                        node.path("host").asText(null),
+                        node.hasNonNull("port") ? node.get("port").asInt() : null,
+                        stat.getCtime(),
+                        node.hasNonNull("priority") ? node.get("priority").asInt() : null,
+                        node.hasNonNull("candidate") ? node.get("candidate").asBoolean() : null,
+                        node.hasNonNull("cpu") ? node.get("cpu").asDouble() : null,
+                        node.hasNonNull("queueDepth") ? node.get("queueDepth").asInt() : null);
+            }
+        } catch (IOException e) {
+            // Not JSON, fall through to the plain description
+        }
+        return new PeerInfo(peer, new String(data, StandardCharsets.UTF_8), null, null, stat.getCtime());
+    }
+
+    private void copyPeerDetails() {
+        if (peerDetailsDirty && peerReadsInFlight == 0) {
+            peerDetails = Map.copyOf(peerInfo);
+            peerDetailsDirty = false;
         }
     }
 
     /**
      * Watch the leader node
      * THIS IS THE CORE LOGIC!
-     * 1. If leader exists, check if it's me
-     * 2. If no leader and I want to be leader, go compete for it
+     * exists() sets the watch (it also fires on create/delete/data change),
+     * getData() is pipelined right behind it to read the leader ID in the same round trip
      */                                             // reference: https://codemia.io/knowledge-hub/path/how_to_re-register_zookeeper_watches
     private void watchLeader() {
         // Listen to the leader node
-        try {
-            // Check if the leader node exists
-            Stat stat = zooKeeper.exists(LEADER_PATH, this);
-            // Parameters:
-            // LEADER_PATH: Path
-            // this: Sets the listener (notifies me when a node changes)
-            // Return value: Returns Stat if it exists, returns null if it does not exist
-            if (stat != null) {
-                // Case 1: Leader Exists 
-
-                // Read the leader's ID
-                byte[] data = zooKeeper.getData(LEADER_PATH, this, null);             // reference: https://zookeeper.apache.org/doc/r3.4.6/api/org/apache/zookeeper/ZooKeeper.html
-                // Parameters:
-                // LEADER_PATH: Path
-                // this: Sets the listener
-                // null: No Stat information needed
-                
-                currentLeader = new String(data, StandardCharsets.UTF_8);
-                // Convert byte array to string
-                logger.info("Current leader is: {}", currentLeader);
-                // Update my status
-
-                if (currentLeader.equals(myId)) {
-                    // I am the leader!
-                    leaderStatus = LeaderStatus.LEADING;
-                } else if (wantsToLead) {
-                    // I wanted to be a leader, but someone else already was.
-                    leaderStatus = LeaderStatus.WAITING;
-                } else {
-                    // I don't want to be a leader, I just want to observe.
-                    leaderStatus = LeaderStatus.WATCHING;
+        long start = System.nanoTime();
+        if (watchMode == WatchMode.ONE_SHOT && watchesLeader()) {
+            armLeaderWatch();
+        }
+        // PERSISTENT mode: the root watch already covers /leader, just read it
+        // Candidates behind the head: just read it, see watchesLeader()
+        zooKeeper.getData(LEADER_PATH, false,                 // reference: https://zookeeper.apache.org/doc/r3.4.6/api/org/apache/zookeeper/ZooKeeper.html
+                (rc, path, ctx, data, stat) -> {
+                    metrics.recordOperation(ZkOperation.GET_DATA, start, rc);
+                    onLeaderData(rc, data, stat, start);
+                }, null);
+    }
+
+    private void armLeaderWatch() {
+        long start = System.nanoTime();
+        zooKeeper.exists(LEADER_PATH, this, (rc, path, ctx, stat) -> {
+            metrics.recordOperation(ZkOperation.EXISTS, start, rc);
+            // Only here for the watch; the leader itself is handled in onLeaderData
+            if (rc != Code.OK.intValue() && rc != Code.NONODE.intValue()) {
+                logger.error("Error watching leader", KeeperException.create(Code.get(rc), path));
+            }
+        }, null);
+    }
+
+    /**
+     * ONE_SHOT + SEQUENTIAL: only the head of the queue (and the leader) watch /leader,
+     * so losing the leader wakes one node instead of every candidate
+     * The others re-read /leader when something they already watch says it may have changed:
+     * the leader's peer node left or flipped its candidacy, or a transfer offer went away
+     */
+    private synchronized boolean watchesLeader() {
+        return electionMode != ElectionMode.SEQUENTIAL || !wantsToLead || atHead
+                || leaderStatus == LeaderStatus.LEADING;
+    }
+
+    /**
+     * A candidate behind the head read "no leader": the head is taking over right now, look again shortly
+     */
+    private synchronized void scheduleLeaderRecheck() {
+        if (leaderRecheckPending || zkExecutor.isShutdown()) {
+            return;
+        }
+        leaderRecheckPending = true;
+        int session = sessionGeneration;
+        zkExecutor.schedule(() -> recheckLeader(session), leaderRecheckInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void recheckLeader(int session) {
+        leaderRecheckPending = false;
+        if (session != sessionGeneration || myId == null || currentLeader != null) {
+            return;   // New session, or the leader turned up meanwhile
+        }
+        watchLeader();
+    }
+
+    /**
+     * 1. If leader exists, check if it's me
+     * 2. If no leader and I want to be leader, go compete for it
+     */
+    private synchronized void onLeaderData(int rc, byte[] data, Stat stat, long sentAt) {
+        if (rc == Code.OK.intValue() || rc == Code.NONODE.intValue()) {
+            leaderChecked = true;   // Whatever the answer, I now know the leader situation
+        }
+        if ((myId == null || zkStatus == ZooKeeperStatus.CONNECTED_READ_ONLY) && rc == Code.OK.intValue()) {
+            // Not registered (the registration failed and is being retried) or read-only, just remember who leads
+            currentLeader = new String(data, StandardCharsets.UTF_8);
+            if (leaderStatus == LeaderStatus.LEADING && !currentLeader.equals(myId)) {
+                leaderStatus = wantsToLead ? LeaderStatus.WAITING : LeaderStatus.WATCHING;
+            }
+        } else if (myId == null || zkStatus == ZooKeeperStatus.CONNECTED_READ_ONLY) {
+            // No leader, but nothing can be created now; SyncConnected reads it again
+            currentLeader = rc == Code.NONODE.intValue() ? null : currentLeader;
+        } else if (rc == Code.OK.intValue()) {
+            // Case 1: Leader Exists
+
+            currentLeader = new String(data, StandardCharsets.UTF_8);
+            // Convert byte array to string
+            logger.info("Current leader is: {}", currentLeader);
+            // Update my status
+
+            if (currentLeader.equals(myId)) {
+                // I am the leader!
+                leaderStatus = LeaderStatus.LEADING;
+                if (stat.getCzxid() != leaderToken || !lease.isValid()) {
+                    grantLease(stat.getCzxid(), sentAt);   // Found out by reading (e.g. after a reconnect)
+                }
+            } else if (handoffTarget != null && currentLeader.equals(handoffTarget)) {
+                // My transfer went through
+                leaderStatus = wantsToLead ? LeaderStatus.WAITING : LeaderStatus.WATCHING;
+                finishHandoff(null);
+                if (electionMode == ElectionMode.SEQUENTIAL && myCandidatePath != null) {
+                    // Go to the back of the queue, so the next failover doesn't land on the node I just left
+                    leaveCandidateQueue();
+                    runForLeader();
+                }
+            } else if (wantsToLead) {
+                // I wanted to be a leader, but someone else already was.
+                leaderStatus = LeaderStatus.WAITING;
+                if (electionMode == ElectionMode.SEQUENTIAL && myCandidatePath == null) {
+                    // Still need a place in the queue for the next election
+                    runForLeader();
                 }
             } else {
-                // Case 2: No Leader
-                currentLeader = null;
-                logger.info("No current leader");
+                // I don't want to be a leader, I just want to observe.
+                leaderStatus = LeaderStatus.WATCHING;
+            }
+        } else if (rc == Code.NONODE.intValue()) {
+            // Case 2: No Leader
+            currentLeader = null;
+            logger.info("No current leader");
 
-                if (wantsToLead) {
-                    // I want to be a leader
-                    tryToBecomeLeader();
-                } else {
-                    // I don't want to be one, I'll continue to observe.
-                    leaderStatus = LeaderStatus.WATCHING;
+            if (!wantsToLead) {
+                // I don't want to be one, I'll continue to observe.
+                leaderStatus = LeaderStatus.WATCHING;
+            } else if (electionMode == ElectionMode.RACE) {
+                // I want to be a leader
+                tryToBecomeLeader();
+            } else if (myCandidatePath == null) {
+                // Not queued yet, join the candidate queue
+                runForLeader();
+            } else if (atHead) {
+                // I'm at the head of the queue, so the job is mine
+                tryToBecomeLeader();
+            } else {
+                // Someone is ahead of me (or the queue check is still in flight), their deletion will wake me up
+                leaderStatus = LeaderStatus.WAITING;
+                if (watchMode == WatchMode.ONE_SHOT) {
+                    scheduleLeaderRecheck();   // Not watching /leader, so find out who the head's win made leader
                 }
             }
-        } catch (KeeperException | InterruptedException e) {
-            logger.error("Error watching leader", e);
+        } else {
+            logger.error("Error reading leader", KeeperException.create(Code.get(rc), LEADER_PATH));
+        }
+        publishState();
+    }
+
+    /**
+     * Join (or re-check) the candidate queue - SEQUENTIAL mode
+     * Every candidate creates an EPHEMERAL_SEQUENTIAL node under /election
+     * The lowest node is the next leader, everyone else only watches the node just ahead of it
+     * So when the leader dies, exactly one node wakes up instead of the whole cluster
+     */
+    private synchronized void runForLeader() {                         // reference: https://zookeeper.apache.org/doc/r3.6.0/recipes.html#sc_leaderElection
+        if (myCandidatePath != null) {
+            // Already queued, just look at where I stand
+            checkCandidateQueue();
+            return;
+        }
+        if (joiningQueue || myId == null) {
+            return;   // The create is already on its way (or I'm not registered yet)
+        }
+        // Take a ticket in the queue
+        joiningQueue = true;
+        long start = System.nanoTime();
+        zooKeeper.create(
+                ELECTION_PATH + "/candidate-",
+                myId.getBytes(StandardCharsets.UTF_8),   // Data: My peer ID
+                ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                CreateMode.EPHEMERAL_SEQUENTIAL,
+                (rc, path, ctx, name) -> {
+                    metrics.recordOperation(ZkOperation.CREATE, start, rc);
+                    onCandidateCreated(rc, name);
+                },
+                null
+        );
+    }
+
+    private synchronized void onCandidateCreated(int rc, String candidatePath) {
+        joiningQueue = false;
+        if (rc == Code.NONODE.intValue() && wantsToLead) {
+            // /election is a container: the server removes it once the last candidate is gone
+            createElectionPath();
+            runForLeader();   // Pipelined behind the create, so it finds the parent back
+            return;
+        }
+        if (rc != Code.OK.intValue()) {
+            logger.error("Error joining candidate queue", KeeperException.create(Code.get(rc), ELECTION_PATH));
+            return;
+        }
+        myCandidatePath = candidatePath;
+        logger.info("Joined candidate queue as: {}", myCandidatePath);
+        if (!wantsToLead) {
+            // stopLeading() came in while the create was in flight
+            leaveCandidateQueue();
+            return;
+        }
+        checkCandidateQueue();
+    }
+
+    private void createElectionPath() {
+        long start = System.nanoTime();
+        zooKeeper.create(ELECTION_PATH, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.CONTAINER,
+                (rc, path, ctx, name) -> {
+                    metrics.recordOperation(ZkOperation.CREATE, start, rc);
+                    onParentCreated(rc, path);
+                }, null);
+    }
+
+    private void checkCandidateQueue() {
+        // No watch here, I only care about my predecessor
+        long start = System.nanoTime();
+        zooKeeper.getChildren(ELECTION_PATH, false,
+                (rc, path, ctx, children, stat) -> {
+                    metrics.recordOperation(ZkOperation.GET_CHILDREN, start, rc);
+                    onCandidates(rc, children);
+                }, null);
+    }
+
+    private synchronized void onCandidates(int rc, List<String> candidates) {
+        if (rc != Code.OK.intValue()) {
+            logger.error("Error reading candidate queue", KeeperException.create(Code.get(rc), ELECTION_PATH));
+            return;
+        }
+        if (myCandidatePath == null) {
+            return;   // Left the queue while the read was in flight
+        }
+        Collections.sort(candidates);
+        // Same zero-padded suffix, so string order = creation order
+
+        String myNode = myCandidatePath.substring(ELECTION_PATH.length() + 1);
+        int index = candidates.indexOf(myNode);
+        if (index < 0) {
+            // My ticket is gone (e.g. deleted by hand), take a new one
+            myCandidatePath = null;
+            atHead = false;
+            queuePositionKnown = false;
+            runForLeader();
+        } else if (index == 0) {
+            // Head of the queue
+            predecessorPath = null;
+            atHead = true;
+            queuePositionKnown = true;
+            if (leaderStatus != LeaderStatus.LEADING) {
+                tryToBecomeLeader();   // After a transfer I can lead from anywhere in the queue
+            }
+        } else {
+            // Watch only the candidate right in front of me
+            String previous = ELECTION_PATH + "/" + candidates.get(index - 1);
+            predecessorPath = previous;
+            atHead = false;
+            queuePositionKnown = false;   // Until exists() confirms it's still there
+            noteRoundTrip();
+            long start = System.nanoTime();
+            zooKeeper.exists(previous, oneShotWatcher(),
+                    (existsRc, path, ctx, stat) -> {
+                        metrics.recordOperation(ZkOperation.EXISTS, start, existsRc);
+                        onPredecessorChecked(existsRc, previous);
+                    }, null);
+        }
+    }
+
+    private synchronized void onPredecessorChecked(int rc, String previous) {
+        if (!previous.equals(predecessorPath)) {
+            return;   // Queue was re-checked since, this answer is old
+        }
+        if (rc == Code.OK.intValue()) {
+            if (leaderStatus != LeaderStatus.LEADING) {
+                leaderStatus = LeaderStatus.WAITING;   // After a transfer I lead from further back in the queue
+            }
+            queuePositionKnown = true;
+            logger.info("Waiting behind: {}", previous);
+            publishState();
+        } else if (rc == Code.NONODE.intValue()) {
+            // It left between getChildren and exists, look again
+            onPredecessorGone();
+        } else {
+            logger.error("Error watching predecessor", KeeperException.create(Code.get(rc), previous));
+        }
+    }
+
+    private synchronized void onPredecessorGone() {
+        predecessorPath = null;
+        queuePositionKnown = false;
+        if (wantsToLead) {
+            runForLeader();   // Am I at the head now?
         }
     }
 
+    /**
+     * Leave the candidate queue - SEQUENTIAL mode
+     * Deleting my node wakes up only the candidate behind me
+     */
+    private synchronized void leaveCandidateQueue() {
+        if (myCandidatePath == null) {
+            return;
+        }
+        String candidatePath = myCandidatePath;
+        long start = System.nanoTime();
+        zooKeeper.delete(candidatePath, -1, (rc, path, ctx) -> {
+            metrics.recordOperation(ZkOperation.DELETE, start, rc);
+            if (rc == Code.OK.intValue()) {
+                logger.info("Left candidate queue: {}", path);
+            } else if (rc == Code.NONODE.intValue()) {
+                logger.debug("Candidate node already gone: {}", path);
+            } else {
+                logger.error("Error leaving candidate queue", KeeperException.create(Code.get(rc), path));
+            }
+        }, null);
+        myCandidatePath = null;
+        predecessorPath = null;
+        atHead = false;
+        queuePositionKnown = false;
+    }
+
     /**
      * Try to become the leader
      * Simple principle: whoever creates /leader node first becomes leader
@@ -274,44 +1066,68 @@ public class ZooKeeperService implements Watcher {
     private void tryToBecomeLeader() {                    // reference: https://zookeeper.apache.org/doc/r3.1.2/zookeeperTutorial.html
         // Try to become a leader
         // Principle: Whoever creates the /leader node first becomes the leader.
-        try {
-            // Attempt to create the /leader node (ephemeral node)
-            zooKeeper.create(
-                    LEADER_PATH,   // Path: leader
-                    myId.getBytes(StandardCharsets.UTF_8),  // Data: My ID
-                    ZooDefs.Ids.OPEN_ACL_UNSAFE,        //Permissions
-                    CreateMode.EPHEMERAL    // Temporary node, automatically deleted when the leader disconnects.
-            );
-            // Automatically delete when client disconnects
-            // Enables automatic failover
-
-            // Creation successful! I am now the leader! 
-            currentLeader = myId;
-            leaderStatus = LeaderStatus.LEADING;
-            logger.info("Successfully became leader!");
-
-        } catch (KeeperException.NodeExistsException e) {
-            // Someone else became leader first (The node already exists, indicating that another node has become the leader.)
-            logger.info("Failed to become leader, node already exists");
-            leaderStatus = LeaderStatus.WAITING;  // Entering waiting state
-            watchLeader();  // Continue listening to the leader
-        } catch (KeeperException | InterruptedException e) {
-            // other errors
-            logger.error("Error trying to become leader", e);
-            leaderStatus = LeaderStatus.WAITING; 
+        noteRoundTrip();
+        // Attempt to create the /leader node (ephemeral node)
+        long start = System.nanoTime();
+        zooKeeper.create(
+                LEADER_PATH,   // Path: leader
+                myId.getBytes(StandardCharsets.UTF_8),  // Data: My ID
+                ZooDefs.Ids.OPEN_ACL_UNSAFE,        //Permissions
+                CreateMode.EPHEMERAL,   // Temporary node, automatically deleted when the leader disconnects.
+                (rc, path, ctx, name, stat) -> {     // Create2Callback: the Stat carries the czxid for the fencing token
+                    metrics.recordOperation(ZkOperation.CREATE, start, rc);
+                    onLeaderCreated(rc, stat, start);
+                },
+                null
+        );
+        // Automatically delete when client disconnects
+        // Enables automatic failover
+    }
+
+    private synchronized void onLeaderCreated(int rc, Stat stat, long sentAt) {
+        switch (Code.get(rc)) {
+            case OK:
+                // Creation successful! I am now the leader!
+                currentLeader = myId;
+                leaderStatus = LeaderStatus.LEADING;
+                grantLease(stat.getCzxid(), sentAt);
+                if (watchMode == WatchMode.ONE_SHOT) {
+                    armLeaderWatch();   // A candidate that just became head may not have had one yet
+                }
+                logger.info("Successfully became leader!");
+                break;
+            case NODEEXISTS:
+                // Someone else became leader first (The node already exists, indicating that another node has become the leader.)
+                logger.info("Failed to become leader, node already exists");
+                leaderStatus = LeaderStatus.WAITING;  // Entering waiting state
+                watchLeader();  // Continue listening to the leader
+                break;
+            default:
+                // other errors
+                logger.error("Error trying to become leader", KeeperException.create(Code.get(rc), LEADER_PATH));
+                leaderStatus = LeaderStatus.WAITING;
         }
+        publishState();
     }
 
     /**
      * Actively start competing for leadership
      * Controller can call this method
      */
-    public void startLeading() {                                                          // reference:https://www.geeksforgeeks.org/devops/sessions-and-lifecycle-in-zookeeper/
+    public synchronized void startLeading() {                                                          // reference:https://www.geeksforgeeks.org/devops/sessions-and-lifecycle-in-zookeeper/
         // Start running for leader
+        boolean changed = !wantsToLead;
         wantsToLead = true;  // Set flag: I want to be a leader
-        if (zkStatus == ZooKeeperStatus.CONNECTED) {
+        if (changed) {
+            rewritePeerData();   // Tell the others I'm a candidate again
+        }
+        if (zkStatus == ZooKeeperStatus.CONNECTED && myId != null) {
             // Can only run for election in a connected state
-            watchLeader();  // Check the leader status immediately
+            if (electionMode == ElectionMode.SEQUENTIAL) {
+                runForLeader();  // Take a place in the candidate queue
+            } else {
+                watchLeader();  // Check the leader status immediately
+            }
         }
         // If no connection is established, the flag has already been set.
         // Upon successful connection, an election attempt will be automatically retried.
@@ -321,63 +1137,349 @@ public class ZooKeeperService implements Watcher {
      * Actively give up leadership
      * If I'm the leader, delete the node and switch to watching
      */
-    public void stopLeading() {
+    public synchronized void stopLeading() {
         // Stop campaigning and enter observation mode
+        boolean changed = wantsToLead;
         wantsToLead = false;  // clear flag
+        if (changed) {
+            rewritePeerData();   // So nobody hands leadership to me
+        }
+
+        if (electionMode == ElectionMode.SEQUENTIAL) {
+            // Leave the queue first so my successor is ready to take over
+            leaveCandidateQueue();
+        }
 
         // If we're currently the leader, give up leadership
-        if (leaderStatus == LeaderStatus.LEADING) {             // reference: https://www.php.net/manual/en/zookeeper.delete.php
-            try {
-                zooKeeper.delete(LEADER_PATH, -1);              // reference: https://zookeeper.apache.org/doc/r3.4.6/api/org/apache/zookeeper/ZooKeeper.html
+        if (leaderStatus == LeaderStatus.LEADING && handoffTarget != null) {
+            // An open offer must go with /leader, or the target could swap out the next leader's node
+            long start = System.nanoTime();
+            zooKeeper.multi(List.of(Op.delete(LEADER_PATH, -1), Op.delete(HANDOFF_PATH, -1)),
+                    (rc, path, ctx, results) -> {
+                        metrics.recordOperation(ZkOperation.MULTI, start, rc);
+                        if (rc != Code.OK.intValue()) {
+                            logger.error("Error giving up leadership", KeeperException.create(Code.get(rc), LEADER_PATH));
+                        }
+                    }, null);
+            finishHandoff(new IllegalStateException("Gave up leadership during the transfer"));
+        } else if (leaderStatus == LeaderStatus.LEADING) {             // reference: https://www.php.net/manual/en/zookeeper.delete.php
+            long start = System.nanoTime();
+            zooKeeper.delete(LEADER_PATH, -1, (rc, path, ctx) -> {   // reference: https://zookeeper.apache.org/doc/r3.4.6/api/org/apache/zookeeper/ZooKeeper.html
+                metrics.recordOperation(ZkOperation.DELETE, start, rc);
                 // Delete the /leader node
-                // Parameters:
-                // LEADER_PATH: Path
                 // -1: Version number
-                logger.info("Gave up leadership");
-            } catch (KeeperException | InterruptedException e) {
-                logger.error("Error giving up leadership", e);
-            }
+                if (rc == Code.OK.intValue()) {
+                    logger.info("Gave up leadership");
+                } else {
+                    logger.error("Error giving up leadership", KeeperException.create(Code.get(rc), path));
+                }
+            }, null);
         }
 
         leaderStatus = LeaderStatus.WATCHING;  // Change to observation mode
         currentLeader = null;
-        watchLeader();  // Continue listening (although not participating in the election)
+        publishState();
+        if (zooKeeper != null) {
+            watchLeader();  // Continue listening (although not participating in the election)
+            // ZK handles a session's requests in order, so this read sees the delete above
+        }
+    }
+
+    /**
+     * Hand my leadership to another live peer with no leaderless window
+     * 1. I create /handoff (ephemeral, so it dies with my session and my /leader) naming the target
+     * 2. The target sees the offer and, in one multi(), checks it is still open, deletes my /leader,
+     *    creates its own /leader and deletes the offer
+     * Nobody ever reads "no leader": the delete and the create are one transaction.
+     * to = null picks the best candidate: by published priority and load (see bestCandidate()),
+     * else the next one in the queue (SEQUENTIAL) or the oldest other peer (RACE)
+     * The future completes with the new leader's ID, or fails if I'm not leading, the target is unknown,
+     * or it doesn't take over within leader.transfer.timeout (then the offer is withdrawn and I keep leading)
+     */
+    public synchronized CompletableFuture<String> transferLeadership(String to) {
+        if (leaderStatus != LeaderStatus.LEADING || zkStatus != ZooKeeperStatus.CONNECTED) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Not the leader"));
+        }
+        if (handoffTarget != null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Transfer to " + handoffTarget + " already in progress"));
+        }
+        CompletableFuture<String> result = new CompletableFuture<>();
+        if (to == null) {
+            findSuccessor(result);
+        } else if (to.equals(myId)) {
+            result.complete(myId);   // Nothing to do
+        } else if (Collections.binarySearch(peers, to) < 0) {
+            result.completeExceptionally(new IllegalArgumentException("Unknown peer: " + to));
+        } else {
+            offerLeadership(to, result);
+        }
+        return result;
+    }
+
+    /**
+     * The best candidate for a transfer with no target given
+     * Peers that publish priority/load are ranked by PeerInfo.BY_PREFERENCE; without any, the queue order decides
+     */
+    private void findSuccessor(CompletableFuture<String> result) {
+        String best = bestCandidate();
+        if (best != null) {
+            offerLeadership(best, result);
+            return;
+        }
+        if (electionMode == ElectionMode.RACE) {
+            for (String peer : peers) {
+                if (!peer.equals(myId)) {
+                    offerLeadership(peer, result);   // Sorted by sequence number, so the oldest one
+                    return;
+                }
+            }
+            result.completeExceptionally(new IllegalStateException("No other peer to hand over to"));
+            return;
+        }
+        // The candidate right behind me would be next anyway; its node holds its peer ID
+        long start = System.nanoTime();
+        zooKeeper.getChildren(ELECTION_PATH, false, (rc, path, ctx, candidates, stat) -> {
+            metrics.recordOperation(ZkOperation.GET_CHILDREN, start, rc);
+            onSuccessorCandidates(rc, candidates, result);
+        }, null);
+    }
+
+    /**
+     * The live peer (other than me) I'd most like to see leading, from the metadata cache; null if none says it is a candidate
+     */
+    synchronized String bestCandidate() {
+        PeerInfo best = null;
+        for (String peer : peers) {
+            PeerInfo info = peerInfo.get(peer);
+            if (!peer.equals(myId) && info != null && Boolean.TRUE.equals(info.getCandidate())
+                    && (best == null || PeerInfo.BY_PREFERENCE.compare(info, best) < 0)) {
+                best = info;
+            }
+        }
+        return best == null ? null : best.getId();
+    }
+
+    private synchronized void onSuccessorCandidates(int rc, List<String> candidates, CompletableFuture<String> result) {
+        String mine = myCandidatePath == null ? null : myCandidatePath.substring(ELECTION_PATH.length() + 1);
+        String next = null;
+        if (rc == Code.OK.intValue()) {
+            Collections.sort(candidates);
+            for (String candidate : candidates) {
+                if (!candidate.equals(mine)) {
+                    next = candidate;
+                    break;
+                }
+            }
+        }
+        if (next == null) {
+            result.completeExceptionally(new IllegalStateException("No other candidate to hand over to"));
+            return;
+        }
+        long readStart = System.nanoTime();
+        zooKeeper.getData(ELECTION_PATH + "/" + next, false, (dataRc, dataPath, dataCtx, data, dataStat) -> {
+            metrics.recordOperation(ZkOperation.GET_DATA, readStart, dataRc);
+            synchronized (this) {
+                if (dataRc != Code.OK.intValue() || data.length == 0) {
+                    result.completeExceptionally(new IllegalStateException("Next candidate went away, try again"));
+                } else if (leaderStatus != LeaderStatus.LEADING || handoffTarget != null) {
+                    result.completeExceptionally(new IllegalStateException("Leadership changed meanwhile"));
+                } else {
+                    offerLeadership(new String(data, StandardCharsets.UTF_8), result);
+                }
+            }
+        }, null);
+    }
+
+    private synchronized void offerLeadership(String target, CompletableFuture<String> result) {
+        handoffTarget = target;
+        handoffResult = result;
+        lease.revoke();   // From the moment the offer exists I may be deposed without hearing of it yet
+        int session = sessionGeneration;
+        logger.info("Offering leadership to {}", target);
+        long start = System.nanoTime();
+        zooKeeper.create(HANDOFF_PATH, target.getBytes(StandardCharsets.UTF_8),
+                ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL,
+                (rc, path, ctx, name) -> {
+                    metrics.recordOperation(ZkOperation.CREATE, start, rc);
+                    onOfferCreated(rc, result, session);
+                }, null);
+    }
+
+    private synchronized void onOfferCreated(int rc, CompletableFuture<String> result, int session) {
+        if (session != sessionGeneration || result != handoffResult) {
+            return;   // Already settled (session gone, leadership given up)
+        }
+        if (rc != Code.OK.intValue()) {
+            // NODEEXISTS: the previous leader's offer is still there (its session is closing)
+            finishHandoff(KeeperException.create(Code.get(rc), HANDOFF_PATH));
+            return;
+        }
+        zkExecutor.schedule(() -> withdrawOffer(result), transferTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The target didn't take over in time: delete the offer, unless it's already been taken
+     */
+    private synchronized void withdrawOffer(CompletableFuture<String> result) {
+        if (result != handoffResult) {
+            return;   // Settled in time
+        }
+        int session = sessionGeneration;
+        long start = System.nanoTime();
+        zooKeeper.delete(HANDOFF_PATH, -1, (rc, path, ctx) -> {
+            metrics.recordOperation(ZkOperation.DELETE, start, rc);
+            synchronized (this) {
+                if (session == sessionGeneration && result == handoffResult && rc == Code.OK.intValue()) {
+                    finishHandoff(new TimeoutException(handoffTarget + " did not take over within " + transferTimeout + " ms"));
+                }
+                // NONODE: the target's multi got there first, the leader read completes the transfer
+            }
+        }, null);
+    }
+
+    private synchronized void finishHandoff(Throwable error) {
+        if (handoffResult == null) {
+            return;
+        }
+        CompletableFuture<String> result = handoffResult;
+        String target = handoffTarget;
+        handoffResult = null;
+        handoffTarget = null;
+        if (error == null) {
+            logger.info("Handed leadership to {}", target);
+            result.complete(target);
+        } else {
+            logger.warn("Transfer to {} called off: {}", target, error.getMessage());
+            result.completeExceptionally(error);
+            if (leaderStatus == LeaderStatus.LEADING) {
+                renewLease();   // Still mine, get the lease back now rather than at the next renewal
+            }
+        }
+    }
+
+    /**
+     * Watch /handoff and read it, same pattern as watchLeader()
+     */
+    private void watchHandoff() {
+        long start = System.nanoTime();
+        if (watchMode == WatchMode.ONE_SHOT) {
+            zooKeeper.exists(HANDOFF_PATH, this, (rc, path, ctx, stat) -> {
+                metrics.recordOperation(ZkOperation.EXISTS, start, rc);
+                if (rc != Code.OK.intValue() && rc != Code.NONODE.intValue()) {
+                    logger.error("Error watching handoff", KeeperException.create(Code.get(rc), path));
+                }
+            }, null);
+        }
+        zooKeeper.getData(HANDOFF_PATH, false, (rc, path, ctx, data, stat) -> {
+            metrics.recordOperation(ZkOperation.GET_DATA, start, rc);
+            onHandoffData(rc, data, stat);
+        }, null);
+    }
+
+    /**
+     * PERSISTENT mode: remember that an offer is open, so the /leader delete of the swap isn't taken as "no leader"
+     */
+    private synchronized void onHandoffEvent(Event.EventType type) {
+        if (type == Event.EventType.NodeDeleted) {
+            handoffSeen = false;
+        } else {
+            handoffSeen = true;
+            watchHandoff();
+        }
+    }
+
+    private synchronized void onHandoffData(int rc, byte[] data, Stat stat) {
+        if (rc == Code.NONODE.intValue()) {
+            if (handoffSeen && myId != null && !watchesLeader()) {
+                watchLeader();   // An offer went away: a transfer may have happened, and I don't watch /leader
+            }
+            handoffSeen = false;
+            return;
+        }
+        if (rc != Code.OK.intValue()) {
+            logger.error("Error reading handoff", KeeperException.create(Code.get(rc), HANDOFF_PATH));
+            return;
+        }
+        handoffSeen = true;
+        String target = new String(data, StandardCharsets.UTF_8);
+        if (!target.equals(myId) || leaderStatus == LeaderStatus.LEADING) {
+            return;   // Not for me
+        }
+        if (!wantsToLead) {
+            logger.info("Declining leadership offer, not running for leader");
+            return;   // The leader withdraws it after its timeout
+        }
+        // Take over: all of it or nothing, and only while the offer (and so the old leader's /leader) stands
+        long start = System.nanoTime();
+        zooKeeper.multi(List.of(
+                Op.check(HANDOFF_PATH, stat.getVersion()),
+                Op.delete(LEADER_PATH, -1),
+                Op.create(LEADER_PATH, myId.getBytes(StandardCharsets.UTF_8),
+                        ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL),
+                Op.delete(HANDOFF_PATH, -1)),
+                (multiRc, path, ctx, results) -> {
+                    metrics.recordOperation(ZkOperation.MULTI, start, multiRc);
+                    onTakenOver(multiRc);
+                }, null);
+    }
+
+    private synchronized void onTakenOver(int rc) {
+        if (rc != Code.OK.intValue()) {
+            // The offer was withdrawn first (or the old leader is gone); the normal election goes on
+            logger.warn("Could not take over leadership", KeeperException.create(Code.get(rc), LEADER_PATH));
+            return;
+        }
+        logger.info("Took over leadership by transfer");
+        currentLeader = myId;
+        leaderStatus = LeaderStatus.LEADING;
+        publishState();
+        watchLeader();   // Re-arms the watch and reads the new node's czxid for the lease
     }
 
     /**
      * Event callback method
      * All ZK events trigger this method
      * Including: connection state changes, node changes, etc.
+     * Only issues async requests, never waits on the server
+     * Callbacks come in on this same ZK event thread; the onXxx() handlers are synchronized
+     * so controller threads (startLeading/stopLeading) can't interleave with them
      */
     @Override                                                               // reference:https://ishan-aggarwal.medium.com/leader-election-distributed-systems-c026cf5afb86, https://zookeeper.apache.org/doc/r3.4.6/javaExample.html
     public void process(WatchedEvent event) {
         // This callback is triggered by all events in ZooKeeper.
+        long start = System.nanoTime();
         logger.info("Received event: {}", event);
         // Output event information for easier debugging
 
         if (event.getType() == Event.EventType.None) {
             // Connection state changed
+            metrics.recordSessionState(event.getState());
             switch (event.getState()) {
                 case SyncConnected:
                     // Connection successful!
-                    zkStatus = ZooKeeperStatus.CONNECTED;
-                    connectedSignal.countDown();    // Wake up threads waiting for connections
+                    onConnected();
                     logger.info("Connected to ZooKeeper");
                     break;
+                case ConnectedReadOnly:
+                    // Only a server cut off from the quorum answered: reads work, writes fail with NOTREADONLY
+                    onConnectedReadOnly();
+                    logger.warn("Connected to ZooKeeper in read-only mode");
+                    break;
                 case Disconnected:
                     // Disconnect
                     // The session is still running, and the ephemeral node will not be deleted.
-                    zkStatus = ZooKeeperStatus.DISCONNECTED;
+                    onConnectionState(ZooKeeperStatus.DISCONNECTED);
                     logger.warn("Disconnected from ZooKeeper");
                     break;
                 case Expired:
                     // Session expired
                     // All ephemeral nodes have been deleted
-                    zkStatus = ZooKeeperStatus.DISCONNECTED;
                     logger.error("Session expired");
-                    System.exit(2); // exit the service   // Important fix! change expired case to exit instead of reconnect
+                    onSessionExpired();   // Rebuild the session in-process instead of restarting the JVM
                     break;
             }
+        } else if (watchMode == WatchMode.PERSISTENT) {
+            onPersistentEvent(event);
         } else {
             // Get the changed node path
             String path = event.getPath();
@@ -385,35 +1487,355 @@ public class ZooKeeperService implements Watcher {
             if (path != null) {
                 if (path.equals(PEERS_PATH)) {
                     // The child nodes of the peers path have changed
-                    updatePeersList();   // Re-fetch the node list
+                    scheduleMembershipRefresh();   // Re-fetch the node list (once per burst)
                 } else if (path.equals(LEADER_PATH)) {
                     // The leader node has changed
                     watchLeader();    // Recheck leader status
                     // If there is no leader, attempt to elect one.
+                } else if (path.equals(HANDOFF_PATH)) {
+                    // A transfer offer came or went
+                    watchHandoff();
+                } else if (event.getType() == Event.EventType.NodeDataChanged
+                        && path.startsWith(PEERS_PATH + "/")) {
+                    // A peer rewrote its metadata (the data watch is spent, the read sets a new one)
+                    readPeerInfo(path.substring(PEERS_PATH.length() + 1));
+                } else if (event.getType() == Event.EventType.NodeDeleted
+                        && path.equals(predecessorPath)) {
+                    // The candidate in front of me is gone (only I get this event)
+                    onPredecessorGone();
                 }
             }
         }
+        metrics.recordEvent(event.getType(), start);
     }
 
     /**
-     * Reconnect to ZK
-     * Need to recreate ZK client when session expires
+     * PERSISTENT mode: one event per created / deleted / changed node anywhere under the namespace
+     * Each one costs at most one targeted read
      */
-    private void reconnect() throws IOException, InterruptedException, KeeperException {   // reference: https://www.waitingforcode.com/apache-zookeeper/session-in-apache-zookeeper/read
-        // Reconnect to ZooKeeper
-        // Called when session expires
-        if (zooKeeper != null) {
-            zooKeeper.close();  //Close old connection
+    private void onPersistentEvent(WatchedEvent event) {
+        String path = event.getPath();
+        Event.EventType type = event.getType();
+        if (path == null) {
+            return;
+        }
+        if (path.equals(LEADER_PATH)) {
+            if (type == Event.EventType.NodeDeleted && !handoffSeen) {
+                // No need to read a node I know is gone
+                onLeaderData(Code.NONODE.intValue(), null, null, 0);
+            } else {
+                // Created or changed: read the new leader ID
+                // Deleted during a transfer: the same multi already created the new one, the read sees it
+                watchLeader();
+            }
+        } else if (path.equals(HANDOFF_PATH)) {
+            onHandoffEvent(type);
+        } else if (path.startsWith(PEERS_PATH + "/")) {
+            String peer = path.substring(PEERS_PATH.length() + 1);
+            if (type == Event.EventType.NodeCreated) {
+                onPeerJoined(peer);
+            } else if (type == Event.EventType.NodeDeleted) {
+                onPeerLeft(peer);
+            } else if (type == Event.EventType.NodeDataChanged) {
+                readPeerInfo(peer);
+            }
+        } else if (type == Event.EventType.NodeDeleted && path.equals(predecessorPath)) {
+            // The candidate in front of me is gone (everyone sees the event, only I act on it)
+            onPredecessorGone();
+        } else {
+            // Someone else's node (election groups etc.), the root watch delivers those here too
+            for (SessionListener listener : sessionListeners) {
+                listener.onPersistentEvent(event);
+            }
+        }
+    }
+
+    private synchronized void onConnectionState(ZooKeeperStatus status) {
+        zkStatus = status;
+        publishState();
+    }
+
+    private synchronized void onConnected() {
+        sessionConnected = true;
+        boolean wasReadOnly = zkStatus == ZooKeeperStatus.CONNECTED_READ_ONLY;
+        onConnectionState(ZooKeeperStatus.CONNECTED);
+        if (leaderStatus == LeaderStatus.LEADING) {
+            renewLease();   // Disconnected voided the lease; my /leader node may well have survived
+        }
+        if (!bootstrapped) {
+            // First connect of this client: paths, peer node, watches, election
+            bootstrapped = true;
+            bootstrap();
+        } else if (wasReadOnly && myId != null) {
+            // Back with the quorum: the leader reads made while read-only held back the election, redo them
+            updatePeersList();
+            watchLeader();
+        } else if (watchMode == WatchMode.PERSISTENT && myId != null) {
+            // The persistent watch survives the reconnect, but changes made while I was away are not replayed
+            updatePeersList();
+            watchLeader();
+            watchHandoff();
+            if (myCandidatePath != null) {
+                checkCandidateQueue();
+            }
+            for (SessionListener listener : sessionListeners) {
+                listener.onReconnected();
+            }
+        }
+        // ONE_SHOT: a reconnect within the same session keeps its nodes and watches, the server replays missed triggers
+    }
+
+    /**
+     * Talking to a partitioned server: keep the leader and peer list current by reading, write nothing
+     * Bootstrap waits for a real SyncConnected (it creates nodes); the watches set here stay on the client
+     */
+    private synchronized void onConnectedReadOnly() {
+        sessionConnected = true;
+        onConnectionState(ZooKeeperStatus.CONNECTED_READ_ONLY);
+        updatePeersList();
+        watchLeader();
+    }
+
+    /**
+     * The session is gone, and with it my peer node, candidate node and (maybe) /leader
+     * Forget everything tied to it and build a new session
+     */
+    private synchronized void onSessionExpired() {
+        zkStatus = ZooKeeperStatus.DISCONNECTED;
+        leaderChecked = false;
+        myId = null;
+        currentLeader = null;
+        myCandidatePath = null;
+        predecessorPath = null;
+        atHead = false;
+        queuePositionKnown = false;
+        joiningQueue = false;
+        leaderStatus = wantsToLead ? LeaderStatus.WAITING : LeaderStatus.WATCHING;
+        handoffSeen = false;
+        finishHandoff(new IllegalStateException("Session expired during the transfer"));
+        applyMembershipChange(membership.clear());   // Everyone I knew about is unknown again
+        peerInfo.clear();
+        peerDetails = Map.of();
+        peerDetailsDirty = false;
+        peerReadsInFlight = 0;
+        publishState();
+        for (SessionListener listener : sessionListeners) {
+            listener.onSessionLost();
+        }
+        scheduleRecovery();
+    }
+
+    private synchronized void scheduleRecovery() {
+        long delay = nextBackoff();
+        logger.info("Rebuilding ZooKeeper session in {} ms", delay);
+        zkExecutor.schedule(this::recover, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Grant (or extend) the lease; sentAt is when the request that proved my leadership was sent
+     */
+    private synchronized void grantLease(long token, long sentAt) {
+        leaderToken = token;
+        if (handoffTarget == null) {   // With an offer open, the target may take over at any moment
+            lease.grant(zooKeeper, token, sentAt + leaseNanos());
+        }
+        scheduleLeaseRenewal();
+    }
+
+    /**
+     * 2/3 of the negotiated session timeout, the client's own read timeout
+     */
+    private long leaseNanos() {
+        int negotiated = zooKeeper.getSessionTimeout();
+        return TimeUnit.MILLISECONDS.toNanos((negotiated > 0 ? negotiated : sessionTimeout) * 2L / 3);
+    }
+
+    /**
+     * Renew twice per lease, so one slow answer doesn't void it
+     */
+    private synchronized void scheduleLeaseRenewal() {
+        if (leaseRenewalScheduled || zkExecutor.isShutdown()) {
+            return;
+        }
+        leaseRenewalScheduled = true;
+        zkExecutor.schedule(this::renewLease, leaseNanos() / 2, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * One exists() on /leader: still there with my czxid = still mine
+     */
+    private synchronized void renewLease() {
+        leaseRenewalScheduled = false;
+        if (leaderStatus != LeaderStatus.LEADING || zkStatus != ZooKeeperStatus.CONNECTED) {
+            return;   // The next reconnect or win starts renewing again
+        }
+        int session = sessionGeneration;
+        long start = System.nanoTime();
+        zooKeeper.exists(LEADER_PATH, false, (rc, path, ctx, stat) -> {
+            metrics.recordOperation(ZkOperation.EXISTS, start, rc);
+            onLeaseChecked(rc, stat, start, session);
+        }, null);
+    }
+
+    private synchronized void onLeaseChecked(int rc, Stat stat, long sentAt, int session) {
+        if (session != sessionGeneration || leaderStatus != LeaderStatus.LEADING) {
+            return;
+        }
+        if (rc == Code.OK.intValue() && stat.getCzxid() == leaderToken) {
+            if (handoffTarget == null) {
+                lease.grant(zooKeeper, leaderToken, sentAt + leaseNanos());
+            }
+            scheduleLeaseRenewal();
+        } else if (rc == Code.OK.intValue() || rc == Code.NONODE.intValue()) {
+            // Deleted, or someone else's node now: not mine anymore, whatever the watch says later
+            logger.warn("Leader node is no longer mine, dropping the lease");
+            lease.revoke();
+            watchLeader();
+        } else {
+            scheduleLeaseRenewal();   // Connection trouble; the lease runs out on its own if it lasts
+        }
+    }
+
+    /**
+     * Count one more sequential round trip on the way to ready (requests pipelined behind it don't count)
+     */
+    private synchronized void noteRoundTrip() {
+        if (!bootstrapReported) {
+            bootstrapRoundTrips++;
+        }
+    }
+
+    /**
+     * Backoff sequence: 0, initial, 2x initial, ... up to the max
+     */
+    private synchronized long nextBackoff() {
+        long delay = nextRecoveryDelay;
+        nextRecoveryDelay = delay == 0
+                ? recoveryInitialBackoff
+                : Math.min(delay * 2, recoveryMaxBackoff);
+        return delay;
+    }
+
+    /**
+     * Replace the expired (or never connected) client with a new one                 // reference: https://www.waitingforcode.com/apache-zookeeper/session-in-apache-zookeeper/read
+     * Runs on the recovery thread: close() may wait, the event thread must not
+     * Once the new client connects, onConnected() runs bootstrap() again:
+     * new peer node (new ID!), fresh peers list and leader watch, and a new candidate node if wantsToLead
+     */
+    private void recover() {
+        ZooKeeper old = zooKeeper;
+        try {
+            if (old != null) {
+                old.close();  //Close old connection
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();   // Shutting down
+            return;
         }
         connect();   // Create a new connection
-        // connect() will be re-executed:
-        // Create a ZooKeeper object
-        // Wait for the connection to succeed
-        // Create the /peers path
-        // Register as a new node (get a new ID!)
-        // Update the node list
-        // Listen for the leader
-        // If wantToLead=true, attempt to run for leader.
+    }
+
+    /**
+     * Build and publish a new snapshot if anything visible changed
+     * Always called with the lock held, so versions never skip or repeat
+     */
+    private synchronized void publishState() {
+        if (leaderStatus != LeaderStatus.LEADING) {
+            leaderToken = 0;
+            lease.revoke();
+        } else if (zkStatus != ZooKeeperStatus.CONNECTED) {
+            lease.revoke();   // Still LEADING as far as I know, but nothing vouches for it right now
+        }
+        ClusterState previous = state.get();
+        // Ready = connected, registered, the leader has been looked up at least once,
+        // and (SEQUENTIAL candidates only) my place in the queue is known
+        boolean electionSettled = electionMode == ElectionMode.RACE || !wantsToLead || queuePositionKnown;
+        boolean ready = zkStatus == ZooKeeperStatus.CONNECTED && myId != null && leaderChecked && electionSettled;
+        if (ready && !bootstrapReported) {
+            bootstrapReported = true;
+            logger.info("Bootstrap finished in {} round trips, {} ms", bootstrapRoundTrips,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - bootstrapStartNanos));
+        }
+        String shownLeader = currentLeader;
+        List<String> shownPeers = peers;
+        boolean stale = false;
+        if (ready) {
+            confirmedLive = true;
+            if (!Objects.equals(currentLeader, confirmedLeader) || !peers.equals(confirmedPeers)) {
+                confirmedLeader = currentLeader;
+                confirmedPeers = peers;
+                confirmedAt = System.currentTimeMillis();
+                saveSnapshot();   // Only on change, so a steady cluster never touches the file
+            }
+        } else {
+            if (confirmedLive) {
+                // Just stopped being live: this is the last moment they were confirmed
+                confirmedLive = false;
+                confirmedAt = System.currentTimeMillis();
+                saveSnapshot();
+            }
+            // Not ready: say how old the last confirmed view is, and show it if nothing newer was read
+            stale = confirmedAt > 0;
+            if (stale && currentLeader == null && peers.isEmpty()) {
+                shownLeader = confirmedLeader;
+                shownPeers = confirmedPeers;
+            }
+        }
+        if (previous.sameAs(ready, leaderStatus, zkStatus, shownLeader, myId, shownPeers, peerDetails,
+                stale, confirmedAt)) {
+            return;   // Nothing new, keep the old snapshot (and its version)
+        }
+        ClusterState next = new ClusterState(previous.getVersion() + 1, ready, leaderStatus, zkStatus,
+                shownLeader, myId, myDescription, shownPeers, peerDetails, stale, confirmedAt);
+        state.set(next);
+        metrics.recordStateChange(previous, next);
+        for (Consumer<ClusterState> listener : stateListeners) {
+            listener.accept(next);
+        }
+    }
+
+    /**
+     * Get told about every published snapshot
+     * The listener runs on the publishing thread (usually the ZK event thread), so hand work off instead of blocking
+     */
+    public void addStateListener(Consumer<ClusterState> listener) {
+        stateListeners.add(listener);
+    }
+
+    public void removeStateListener(Consumer<ClusterState> listener) {
+        stateListeners.remove(listener);
+    }
+
+    /**
+     * Get told which peers joined and left, one call per coalesced burst
+     * Same threading rules as state listeners: don't block
+     */
+    public void addMembershipListener(MembershipListener listener) {
+        membershipListeners.add(listener);
+    }
+
+    public void removeMembershipListener(MembershipListener listener) {
+        membershipListeners.remove(listener);
+    }
+
+    /**
+     * Share this session: told when it starts (peer ID known), reconnects, expires,
+     * and about PERSISTENT-mode events outside /leader, /peers and /election
+     */
+    void addSessionListener(SessionListener listener) {
+        sessionListeners.add(listener);
+    }
+
+    void removeSessionListener(SessionListener listener) {
+        sessionListeners.remove(listener);
+    }
+
+    String getNamespacePath() {
+        return namespacePath;   // Where other components put their nodes, next to /leader and /peers
+    }
+
+    WatchMode getWatchMode() {
+        return watchMode;
     }
 
     /**
@@ -424,6 +1846,13 @@ public class ZooKeeperService implements Watcher {
     // Execution timing: When the application is closed
     public void cleanup() {
         // Clean up resources
+        zkExecutor.shutdownNow();   // No more rebuilds while shutting down
+        synchronized (this) {
+            if (confirmedLive) {
+                confirmedAt = System.currentTimeMillis();   // Live up to now
+                saveSnapshot();
+            }
+        }
         try {
             if (zooKeeper != null) {  // Check if the connection exists
                 zooKeeper.close();  // close connection
@@ -441,29 +1870,46 @@ public class ZooKeeperService implements Watcher {
 
     // ========== Getter Methods ==========
     // For the Controller to query current status
+    // All of them read the published snapshot, never the working fields
+
+    public ClusterState getClusterState() {
+        return state.get();   // consistent view of everything below
+    }
+
+    public LeadershipLease getLeadershipLease() {
+        return lease;   // Check it before every leader-only write, it costs nanoseconds
+    }
+
+    public boolean isReady() {
+        return state.get().isReady();   // joined the cluster and knows the leader
+    }
 
     // Getters
     public LeaderStatus getLeaderStatus() {
-        return leaderStatus;  // my status
+        return state.get().getLeaderStatus();  // my status
     }
 
     public ZooKeeperStatus getZkStatus() {
-        return zkStatus;      // connection status
+        return state.get().getZkStatus();      // connection status
     }
 
     public String getCurrentLeader() {
-        return currentLeader;      // Current leader's ID
+        return state.get().getCurrentLeader();      // Current leader's ID
     }
 
     public String getMyId() {
-        return myId;        // my ID
+        return state.get().getMyId();        // my ID
     }
 
     public String getMyDescription() {
         return myDescription;  // my description
     }
 
-    public List<String> getPeers() { 
-        return peers;     // list of all nodes
+    public int getPriority() {
+        return priority;       // election.priority
+    }
+
+    public List<String> getPeers() {
+        return state.get().getPeers();     // list of all nodes
     }
 }
@@ -2,5 +2,6 @@ package edu.sjsu.cmpe172;
 
 public enum ZooKeeperStatus {   // reference:https://www.baeldung.com/java-enum-simple-state-machine
     CONNECTED,
+    CONNECTED_READ_ONLY,   // Talking to a server cut off from the quorum: reads only, no writes
     DISCONNECTED
 }
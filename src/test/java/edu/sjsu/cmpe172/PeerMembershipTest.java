@@ -0,0 +1,91 @@
+package edu.sjsu.cmpe172;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PeerMembershipTest {
+
+    private final PeerMembership membership = new PeerMembership();
+
+    @Test
+    void replaceAllReportsOnlyTheDifference() {
+        membership.replaceAll(List.of("peer-3", "peer-1", "peer-2"));
+
+        MembershipChange change = membership.replaceAll(List.of("peer-4", "peer-2", "peer-1", "peer-5"));
+
+        assertThat(change.getJoined()).containsExactly("peer-4", "peer-5");
+        assertThat(change.getLeft()).containsExactly("peer-3");
+        assertThat(change.getMembers()).containsExactly("peer-1", "peer-2", "peer-4", "peer-5");
+        assertThat(membership.getMembers()).isEqualTo(change.getMembers());
+    }
+
+    @Test
+    void sameChildListIsAnEmptyChange() {
+        membership.replaceAll(List.of("peer-1", "peer-2"));
+        List<String> before = membership.getMembers();
+
+        MembershipChange change = membership.replaceAll(List.of("peer-2", "peer-1"));
+
+        assertThat(change.isEmpty()).isTrue();
+        assertThat(membership.getMembers()).isSameAs(before);
+    }
+
+    @Test
+    void flushAppliesBufferedEventsAsOneChange() {
+        membership.replaceAll(List.of("peer-1", "peer-2"));
+        membership.joined("peer-3");
+        membership.left("peer-1");
+        membership.joined("peer-4");
+        membership.left("peer-4");   // Came and went within the window
+        assertThat(membership.hasPending()).isTrue();
+
+        MembershipChange change = membership.flush();
+
+        assertThat(change.getJoined()).containsExactly("peer-3");
+        assertThat(change.getLeft()).containsExactly("peer-1");
+        assertThat(change.getMembers()).containsExactly("peer-2", "peer-3");
+        assertThat(membership.hasPending()).isFalse();
+    }
+
+    @Test
+    void flushIgnoresEventsTheSetAlreadyReflects() {
+        membership.replaceAll(List.of("peer-1"));
+        membership.joined("peer-1");
+        membership.left("peer-9");
+
+        assertThat(membership.flush().isEmpty()).isTrue();
+    }
+
+    @Test
+    void replaceAllDropsBufferedEvents() {
+        membership.replaceAll(List.of("peer-1"));
+        membership.joined("peer-2");
+
+        membership.replaceAll(List.of("peer-1", "peer-2"));
+
+        assertThat(membership.hasPending()).isFalse();
+        assertThat(membership.flush().isEmpty()).isTrue();
+    }
+
+    @Test
+    void clearReportsEveryoneAsLeft() {
+        membership.replaceAll(List.of("peer-2", "peer-1"));
+        membership.joined("peer-3");
+
+        MembershipChange change = membership.clear();
+
+        assertThat(change.getJoined()).isEmpty();
+        assertThat(change.getLeft()).containsExactly("peer-1", "peer-2");
+        assertThat(change.getMembers()).isEmpty();
+        assertThat(membership.getMembers()).isEmpty();
+        assertThat(membership.hasPending()).isFalse();
+    }
+
+    @Test
+    void clearOnAnEmptySetIsAnEmptyChange() {
+        assertThat(membership.clear().isEmpty()).isTrue();
+    }
+}
@@ -0,0 +1,111 @@
+package edu.sjsu.cmpe172;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ShardAssignmentServiceTest {
+    private static final int SHARDS = 1024;
+
+    private ShardAssignmentService service;
+
+    @BeforeEach
+    void setUp() {
+        service = newService();
+    }
+
+    private static ShardAssignmentService newService() {
+        ZooKeeperService zooKeeperService = mock(ZooKeeperService.class);
+        when(zooKeeperService.getClusterState()).thenReturn(new ClusterState(0, false, LeaderStatus.WAITING,
+                ZooKeeperStatus.DISCONNECTED, null, null, null, List.of(), Map.of()));
+        ShardAssignmentService service = new ShardAssignmentService();
+        ReflectionTestUtils.setField(service, "zooKeeperService", zooKeeperService);
+        ReflectionTestUtils.setField(service, "shardCount", SHARDS);
+        ReflectionTestUtils.setField(service, "virtualNodes", 128);
+        service.init();
+        return service;
+    }
+
+    private static MembershipChange change(List<String> joined, List<String> left, List<String> members) {
+        return new MembershipChange(joined, left, members);
+    }
+
+    @Test
+    void firstPeersOwnEveryShard() {
+        service.onMembershipChange(change(List.of("a", "b", "c"), List.of(), List.of("a", "b", "c")));
+
+        ShardAssignment assignment = service.getAssignment();
+        for (int shard = 0; shard < SHARDS; shard++) {
+            assertThat(assignment.ownerOfShard(shard)).isIn("a", "b", "c");
+        }
+        assertThat(assignment.getShardsByPeer()).containsOnlyKeys("a", "b", "c");
+    }
+
+    @Test
+    void joinOnlyMovesShardsToTheNewPeer() {
+        service.onMembershipChange(change(List.of("a", "b", "c"), List.of(), List.of("a", "b", "c")));
+        ShardAssignment before = service.getAssignment();
+
+        service.onMembershipChange(change(List.of("d"), List.of(), List.of("a", "b", "c", "d")));
+        ShardAssignment after = service.getAssignment();
+
+        for (int shard = 0; shard < SHARDS; shard++) {
+            if (!before.ownerOfShard(shard).equals(after.ownerOfShard(shard))) {
+                assertThat(after.ownerOfShard(shard)).isEqualTo("d");
+            }
+        }
+        int taken = after.shardsOf("d").size();
+        assertThat(after.movedFrom(before)).isEqualTo(taken);
+        assertThat(taken).isBetween(SHARDS / 8, SHARDS / 2);   // Around a quarter
+    }
+
+    @Test
+    void leaveOnlyMovesTheLeaversShards() {
+        service.onMembershipChange(change(List.of("a", "b", "c", "d"), List.of(), List.of("a", "b", "c", "d")));
+        ShardAssignment before = service.getAssignment();
+
+        service.onMembershipChange(change(List.of(), List.of("b"), List.of("a", "c", "d")));
+        ShardAssignment after = service.getAssignment();
+
+        assertThat(after.movedFrom(before)).isEqualTo(before.shardsOf("b").size());
+        assertThat(after.shardsOf("b")).isEmpty();
+        for (int shard = 0; shard < SHARDS; shard++) {
+            if (!"b".equals(before.ownerOfShard(shard))) {
+                assertThat(after.ownerOfShard(shard)).isEqualTo(before.ownerOfShard(shard));
+            }
+        }
+    }
+
+    @Test
+    void deltasEndUpWhereAFreshRingWould() {
+        service.onMembershipChange(change(List.of("a", "b", "c"), List.of(), List.of("a", "b", "c")));
+        service.onMembershipChange(change(List.of("d", "e"), List.of("a"), List.of("b", "c", "d", "e")));
+
+        ShardAssignmentService fresh = newService();
+        fresh.onMembershipChange(change(List.of("b", "c", "d", "e"), List.of(), List.of("b", "c", "d", "e")));
+
+        for (int shard = 0; shard < SHARDS; shard++) {
+            assertThat(service.getAssignment().ownerOfShard(shard))
+                    .isEqualTo(fresh.getAssignment().ownerOfShard(shard));
+        }
+    }
+
+    @Test
+    void lastPeerLeavingClearsEveryOwner() {
+        service.onMembershipChange(change(List.of("a"), List.of(), List.of("a")));
+
+        service.onMembershipChange(change(List.of(), List.of("a"), List.of()));
+
+        ShardAssignment assignment = service.getAssignment();
+        assertThat(assignment.getShardsByPeer()).isEmpty();
+        assertThat(assignment.ownerOfShard(0)).isNull();
+        assertThat(assignment.getVersion()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,46 @@
+package edu.sjsu.cmpe172;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ShardAssignmentTest {
+
+    @Test
+    void movedFromCountsShardsWithAnotherOwner() {
+        ShardAssignment previous = new ShardAssignment(1, new String[]{"a", "b", "a", null});
+        ShardAssignment next = new ShardAssignment(2, new String[]{"a", "c", "a", "c"});
+
+        assertThat(next.movedFrom(previous)).isEqualTo(2);
+        assertThat(next.movedFrom(next)).isZero();
+    }
+
+    @Test
+    void differentShardCountMovesEverything() {
+        ShardAssignment previous = new ShardAssignment(1, new String[]{"a", "a"});
+        ShardAssignment next = new ShardAssignment(2, new String[]{"a", "a", "a"});
+
+        assertThat(next.movedFrom(previous)).isEqualTo(3);
+    }
+
+    @Test
+    void shardsAreGroupedByPeer() {
+        ShardAssignment assignment = new ShardAssignment(1, new String[]{"b", "a", "b", null});
+
+        assertThat(assignment.shardsOf("b")).containsExactly(0, 2);
+        assertThat(assignment.shardsOf("a")).containsExactly(1);
+        assertThat(assignment.shardsOf("c")).isEmpty();
+        assertThat(assignment.shardsOf(null)).isEmpty();
+        assertThat(assignment.ownerOfShard(3)).isNull();
+    }
+
+    @Test
+    void keysMapToAStableShard() {
+        ShardAssignment assignment = new ShardAssignment(1, new String[16]);
+
+        int shard = assignment.shardOf("order-42");
+
+        assertThat(shard).isBetween(0, 15);
+        assertThat(new ShardAssignment(7, new String[16]).shardOf("order-42")).isEqualTo(shard);
+    }
+}
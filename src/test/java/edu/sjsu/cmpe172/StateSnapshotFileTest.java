@@ -0,0 +1,135 @@
+package edu.sjsu.cmpe172;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StateSnapshotFileTest {
+
+    @TempDir
+    Path dir;
+
+    private Path path;
+
+    @BeforeEach
+    void setUp() {
+        path = dir.resolve("leader-state.snapshot");
+    }
+
+    @Test
+    void newFileHoldsNothing() throws IOException {
+        assertThat(StateSnapshotFile.open(path).load()).isNull();
+    }
+
+    @Test
+    void savedStateIsReadBackAfterReopening() throws IOException {
+        StateSnapshotFile file = StateSnapshotFile.open(path);
+        assertThat(file.save(1234L, "peer-0000000002", List.of("peer-0000000001", "peer-0000000002"))).isTrue();
+
+        StateSnapshotFile.Saved saved = StateSnapshotFile.open(path).load();
+
+        assertThat(saved).isNotNull();
+        assertThat(saved.confirmedAt).isEqualTo(1234L);
+        assertThat(saved.leader).isEqualTo("peer-0000000002");
+        assertThat(saved.peers).containsExactly("peer-0000000001", "peer-0000000002");
+    }
+
+    @Test
+    void noLeaderIsKeptAsNull() throws IOException {
+        StateSnapshotFile file = StateSnapshotFile.open(path);
+        file.save(1L, null, List.of());
+
+        StateSnapshotFile.Saved saved = file.load();
+
+        assertThat(saved.leader).isNull();
+        assertThat(saved.peers).isEmpty();
+    }
+
+    @Test
+    void laterSaveReplacesTheEarlierOne() throws IOException {
+        StateSnapshotFile file = StateSnapshotFile.open(path);
+        file.save(1L, "peer-1", List.of("peer-1", "peer-2", "peer-3"));
+        file.save(2L, "peer-2", List.of("peer-2"));
+
+        StateSnapshotFile.Saved saved = StateSnapshotFile.open(path).load();
+
+        assertThat(saved.confirmedAt).isEqualTo(2L);
+        assertThat(saved.leader).isEqualTo("peer-2");
+        assertThat(saved.peers).containsExactly("peer-2");
+    }
+
+    @Test
+    void badMagicIsRejected() throws IOException {
+        saveSomething();
+        writeInt(0, 0x12345678);
+
+        assertThat(StateSnapshotFile.open(path).load()).isNull();
+    }
+
+    @Test
+    void badLengthIsRejected() throws IOException {
+        saveSomething();
+        writeInt(4, Integer.MAX_VALUE);
+        assertThat(StateSnapshotFile.open(path).load()).isNull();
+
+        writeInt(4, -1);
+        assertThat(StateSnapshotFile.open(path).load()).isNull();
+    }
+
+    @Test
+    void badCrcIsRejected() throws IOException {
+        saveSomething();
+        writeInt(8, readInt(8) ^ 1);
+
+        assertThat(StateSnapshotFile.open(path).load()).isNull();
+    }
+
+    @Test
+    void flippedPayloadByteIsRejected() throws IOException {
+        saveSomething();
+        writeInt(12, readInt(12) ^ 0x100);   // Inside confirmedAt
+
+        assertThat(StateSnapshotFile.open(path).load()).isNull();
+    }
+
+    @Test
+    void peerListTooLargeIsNotSavedAndClearsTheFile() throws IOException {
+        StateSnapshotFile file = StateSnapshotFile.open(path);
+        saveSomething();
+        List<String> peers = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            peers.add("peer-" + String.format("%010d", i));
+        }
+
+        assertThat(file.save(3L, "peer-0000000000", peers)).isFalse();
+        assertThat(file.load()).isNull();
+    }
+
+    private void saveSomething() throws IOException {
+        StateSnapshotFile.open(path).save(42L, "peer-1", List.of("peer-1", "peer-2"));
+    }
+
+    private int readInt(long position) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer in = ByteBuffer.allocate(4);
+            channel.read(in, position);
+            return in.flip().getInt();
+        }
+    }
+
+    private void writeInt(long position, int value) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(value).flip(), position);
+        }
+    }
+}